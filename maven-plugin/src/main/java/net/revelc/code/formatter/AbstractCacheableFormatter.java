@@ -20,7 +20,6 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.Map;
-import java.util.Objects;
 
 import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.util.FileUtils;
@@ -36,6 +35,8 @@ public abstract class AbstractCacheableFormatter {
 
     protected Charset encoding;
 
+    private FormattedOutputStore outputStore;
+
     protected abstract void init(Map<String, String> options, ConfigurationSource cfg);
 
     protected void initCfg(ConfigurationSource cfg) {
@@ -47,11 +48,7 @@ public abstract class AbstractCacheableFormatter {
         try {
             this.log.debug("Processing file: " + file);
             String code = FileUtils.fileRead(file, this.encoding.name());
-            String formattedCode = doFormat(code, ending);
-
-            if (formattedCode == null) {
-                formattedCode = fixLineEnding(code, ending);
-            }
+            String formattedCode = formatCode(code, ending);
 
             if (formattedCode == null) {
                 this.log.debug("Equal code. Not writing result to file.");
@@ -69,23 +66,46 @@ public abstract class AbstractCacheableFormatter {
         }
     }
 
-    private static String fixLineEnding(String code, LineEnding ending) {
-        if (ending == LineEnding.KEEP) {
-            return null;
+    /**
+     * Set the store replaying the formatted code of code already formatted, instead of formatting it again.
+     *
+     * @param outputStore the store, or null
+     */
+    public void setOutputStore(FormattedOutputStore outputStore) {
+        this.outputStore = outputStore;
+    }
+
+    public String formatCode(String code, LineEnding ending) throws IOException, BadLocationException {
+        String formattedCode = formatOrReplay(code, ending);
+
+        if (formattedCode == null) {
+            formattedCode = fixLineEnding(code, ending);
         }
+        return formattedCode;
+    }
 
-        LineEnding current = LineEnding.determineLineEnding(code);
-        if (current == LineEnding.UNKNOW) {
-            return null;
+    private String formatOrReplay(String code, LineEnding ending) throws IOException, BadLocationException {
+        if (this.outputStore == null) {
+            return doFormat(code, ending);
         }
-        if (current == ending) {
+
+        String key = this.outputStore.keyOf(getClass().getName(), ending, code);
+        String formattedCode = this.outputStore.get(key, code);
+        if (formattedCode == code) {
             return null;
         }
-        if (ending == LineEnding.AUTO && Objects.equals(current.getChars(), ending.getChars())) {
-            return null;
+        if (formattedCode == null) {
+            formattedCode = doFormat(code, ending);
+            this.outputStore.put(key, formattedCode);
         }
+        return formattedCode;
+    }
 
-        return code.replace(current.getChars(), ending.getChars());
+    private static String fixLineEnding(String code, LineEnding ending) {
+        if (ending == LineEnding.KEEP) {
+            return null;
+        }
+        return ending.replaceLineEndings(code);
     }
 
     protected abstract String doFormat(String code, LineEnding ending) throws IOException, BadLocationException;
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import java.io.File;
+
+/**
+ * A file travelling through the {@link FormatterPipeline}, carrying what each stage learned about it.
+ */
+final class FileTask {
+
+    /** Marks the end of the tasks of a queue. */
+    static final FileTask END = new FileTask(null);
+
+    final File file;
+
+    long key;
+
+    long size;
+
+    long lastModified;
+
+    byte[] content;
+
+    String code;
+
+    byte[] originalHash;
+
+    byte[] sharedHash;
+
+    byte[] sharedKey;
+
+    String formattedCode;
+
+    byte[] formattedContent;
+
+    Result result;
+
+    FileTask(final File file) {
+        this.file = file;
+    }
+
+}
@@ -0,0 +1,353 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Store of formatted code, so that code already seen, e.g. on another branch, is not formatted again.
+ *
+ * Each entry is a file named after a SHA-256 digest of the configuration fingerprint, the formatter, the line ending
+ * and the code, holding the gzip compressed formatted code, or nothing when the formatter leaves the code as is. A
+ * cryptographic digest is used as a collision would write the formatted code of another input to a source file.
+ *
+ * An index file records the size and the time of last use of each entry. The entries used by a build are merged into
+ * the index when the build ends, holding an exclusive lock on a lock file so that concurrent builds can share the
+ * store, and the least recently used entries are evicted when the store outgrows its maximum size. The index is only
+ * rebuilt by listing the entries when it is missing or unreadable.
+ */
+public final class FormattedOutputStore {
+
+    private static final String SUFFIX = ".gz";
+
+    private static final String INDEX_FILENAME = "index.bin";
+
+    private static final String LOCK_FILENAME = "index.lock";
+
+    private static final int MAGIC = 0x464d544f;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int KEY_LENGTH = 32;
+
+    private static final int RECORD_SIZE = KEY_LENGTH + 16;
+
+    private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+    private final File directory;
+
+    private final byte[] fingerprint;
+
+    private final long maxSize;
+
+    private final Log log;
+
+    /** The entries used by this build, not merged into the index yet. */
+    private final ConcurrentMap<String, Entry> used = new ConcurrentHashMap<>();
+
+    private FormattedOutputStore(final File directory, final byte[] fingerprint, final long maxSize, final Log log) {
+        this.directory = directory;
+        this.fingerprint = fingerprint;
+        this.maxSize = maxSize;
+        this.log = log;
+    }
+
+    /**
+     * Open the store of the directory, which does not read anything but the entries looked up.
+     *
+     * @param directory the directory of the store
+     * @param fingerprint the fingerprint of the configuration
+     * @param maxSize the size in bytes the store is trimmed to
+     * @param log the log
+     * @return the store
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static FormattedOutputStore open(final File directory, final byte[] fingerprint, final long maxSize,
+            final Log log) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create formatted output store directory " + directory);
+        }
+        return new FormattedOutputStore(directory, fingerprint, maxSize, log);
+    }
+
+    /**
+     * Compute the key of the code.
+     *
+     * @param formatter the name of the formatter
+     * @param ending the line ending
+     * @param code the code
+     * @return the key
+     */
+    String keyOf(final String formatter, final LineEnding ending, final String code) {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putInt(this.fingerprint.length).putBytes(this.fingerprint);
+        hasher.putInt(formatter.length()).putUnencodedChars(formatter);
+        hasher.putInt(ending.ordinal());
+        hasher.putUnencodedChars(code);
+        return HEX.encode(hasher.hash().asBytes());
+    }
+
+    /**
+     * Look up the formatted code of a key.
+     *
+     * @param key the key of the code
+     * @param code the code
+     * @return the formatted code, the code itself if the formatter left it as is, or null if unknown
+     */
+    String get(final String key, final String code) {
+        final File file = fileOf(key);
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            final byte[] content = ByteStreams.toByteArray(in);
+            String formattedCode = code;
+            if (content.length > 0) {
+                try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(content))) {
+                    formattedCode = new String(ByteStreams.toByteArray(gzip), StandardCharsets.UTF_8);
+                }
+            }
+            this.used.put(key, new Entry(content.length, System.currentTimeMillis()));
+            return formattedCode;
+        } catch (final NoSuchFileException e) {
+            return null;
+        } catch (final IOException e) {
+            this.log.debug("Cannot read formatted output store entry " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Store the formatted code of a key.
+     *
+     * @param key the key of the code
+     * @param formattedCode the formatted code, or null if the formatter left the code as is
+     */
+    void put(final String key, final String formattedCode) {
+        final File file = fileOf(key);
+        try {
+            byte[] content = new byte[0];
+            if (formattedCode != null) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream(formattedCode.length() / 4 + 32);
+                try (OutputStream gzip = new GZIPOutputStream(bytes)) {
+                    gzip.write(formattedCode.getBytes(StandardCharsets.UTF_8));
+                }
+                content = bytes.toByteArray();
+            }
+            final File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create directory " + parent);
+            }
+            // written aside and moved into place so that readers never see a partial entry
+            final Path tmp = Files.createTempFile(parent.toPath(), key, ".tmp");
+            try {
+                Files.write(tmp, content);
+                Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            this.used.put(key, new Entry(content.length, System.currentTimeMillis()));
+        } catch (final IOException e) {
+            this.log.debug("Cannot write formatted output store entry " + file, e);
+        }
+    }
+
+    /**
+     * Merge the entries used by this build into the index and evict the least recently used entries until the store is
+     * back to three quarters of its maximum size, holding an exclusive lock on the lock file of the store.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    void sync() throws IOException {
+        if (this.used.isEmpty()) {
+            return;
+        }
+        final Map<String, Entry> merged = new HashMap<>(this.used);
+        // a file cannot be locked twice by the same JVM, as by the parallel builds of a reactor
+        synchronized (FormattedOutputStore.class) {
+            try (FileChannel channel = FileChannel.open(new File(this.directory, LOCK_FILENAME).toPath(),
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE); FileLock lock = channel.lock()) {
+                Map<String, Entry> index = readIndex();
+                if (index == null) {
+                    this.log.debug("Rebuilding the index of formatted output store " + this.directory);
+                    index = list();
+                }
+                for (final Map.Entry<String, Entry> entry : merged.entrySet()) {
+                    final Entry previous = index.get(entry.getKey());
+                    // the size of a replaced entry is only counted once
+                    if (previous == null || previous.lastUsed < entry.getValue().lastUsed) {
+                        index.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                evict(index);
+                writeIndex(index);
+            }
+        }
+        for (final Map.Entry<String, Entry> entry : merged.entrySet()) {
+            this.used.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Evict the least recently used entries of the index until the store is back to three quarters of its maximum
+     * size, if it outgrew its maximum size.
+     */
+    private void evict(final Map<String, Entry> index) throws IOException {
+        long size = 0;
+        for (final Entry entry : index.values()) {
+            size += entry.size;
+        }
+        if (size <= this.maxSize) {
+            return;
+        }
+        final List<Map.Entry<String, Entry>> entries = new ArrayList<>(index.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Entry>>() {
+            @Override
+            public int compare(final Map.Entry<String, Entry> o1, final Map.Entry<String, Entry> o2) {
+                return Long.compare(o1.getValue().lastUsed, o2.getValue().lastUsed);
+            }
+        });
+        for (final Map.Entry<String, Entry> entry : entries) {
+            if (size <= this.maxSize / 4 * 3) {
+                break;
+            }
+            Files.deleteIfExists(fileOf(entry.getKey()).toPath());
+            index.remove(entry.getKey());
+            size -= entry.getValue().size;
+        }
+    }
+
+    /**
+     * @return the entries of the index, or null if it is missing or unreadable
+     */
+    private Map<String, Entry> readIndex() throws IOException {
+        final ByteBuffer content;
+        try {
+            content = ByteBuffer.wrap(Files.readAllBytes(new File(this.directory, INDEX_FILENAME).toPath()));
+        } catch (final NoSuchFileException e) {
+            return null;
+        }
+        if (content.remaining() < HEADER_SIZE || content.getInt() != MAGIC || content.getInt() != VERSION) {
+            return null;
+        }
+        final Map<String, Entry> index = new HashMap<>();
+        final byte[] key = new byte[KEY_LENGTH];
+        while (content.remaining() >= RECORD_SIZE) {
+            content.get(key);
+            final long size = content.getLong();
+            index.put(HEX.encode(key), new Entry(size, content.getLong()));
+        }
+        return index;
+    }
+
+    /**
+     * Write the index aside and move it into place, so that an interrupted build never leaves a partial index.
+     */
+    private void writeIndex(final Map<String, Entry> index) throws IOException {
+        final ByteBuffer content = ByteBuffer.allocate(HEADER_SIZE + index.size() * RECORD_SIZE);
+        content.putInt(MAGIC).putInt(VERSION);
+        for (final Map.Entry<String, Entry> entry : index.entrySet()) {
+            content.put(HEX.decode(entry.getKey()));
+            content.putLong(entry.getValue().size).putLong(entry.getValue().lastUsed);
+        }
+        final Path file = new File(this.directory, INDEX_FILENAME).toPath();
+        final Path tmp = Files.createTempFile(this.directory.toPath(), INDEX_FILENAME, ".tmp");
+        try {
+            Files.write(tmp, content.array());
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private File fileOf(final String key) {
+        return new File(new File(this.directory, key.substring(0, 2)), key + SUFFIX);
+    }
+
+    /**
+     * List the entries of the store, last used when last modified.
+     */
+    private Map<String, Entry> list() throws IOException {
+        final Map<String, Entry> entries = new HashMap<>();
+        Files.walkFileTree(this.directory.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                final String name = file.getFileName().toString();
+                final String key = name.substring(0, Math.max(name.length() - SUFFIX.length(), 0));
+                if (name.endsWith(SUFFIX) && key.length() == 2 * KEY_LENGTH && HEX.canDecode(key)) {
+                    entries.put(key,
+                            new Entry(attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                // evicted by a concurrent build
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return entries;
+    }
+
+    private static final class Entry {
+
+        private final long size;
+
+        private final long lastUsed;
+
+        Entry(final long size, final long lastUsed) {
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+}
@@ -17,8 +17,11 @@
 package net.revelc.code.formatter;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 
+import org.eclipse.jface.text.BadLocationException;
+
 /**
  * @author marvin.froeder
  */
@@ -34,6 +37,11 @@ public interface Formatter {
      */
     public abstract Result formatFile(File file, LineEnding ending, boolean dryRun);
 
+    /**
+     * Format the given code, returns null if the code is left unchanged.
+     */
+    public abstract String formatCode(String code, LineEnding ending) throws IOException, BadLocationException;
+
     /**
      * return true if this formatter have been initialized
      */
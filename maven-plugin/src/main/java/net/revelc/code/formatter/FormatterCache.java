@@ -0,0 +1,623 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Cache of the digests of formatted files, along with their size and modification time.
+ *
+ * The cache file is an open addressing hash table of fixed width slots, keyed by a hash of the path of the file and
+ * memory mapped read only, so lookups read the slots in place without building any String. The header of the cache
+ * file records the hash algorithm of the digests and the fingerprint of the configuration the files were formatted
+ * with, the entries of a cache file with another algorithm or fingerprint are discarded on opening.
+ *
+ * Updates are kept in memory and appended to a journal as each file completes, and the journal is kept from one build
+ * to the next, replayed on opening, so storing the cache costs in proportion to the files changed. Once the journal
+ * holds at least half as many records as the cache file has entries, or the cache file is missing, the cache file and
+ * the updates are compacted into a new cache file atomically replacing the previous one on closing, after which the
+ * journal is emptied. While the files are formatted, the compaction also waits for at least
+ * {@link #MIN_COMPACTION_RECORDS} records. An interrupted build also leaves its journal behind, so the work already
+ * done is not lost.
+ */
+final class FormatterCache implements Closeable {
+
+    /** Minimum number of journaled updates before they are compacted into the cache file while formatting. */
+    static final int MIN_COMPACTION_RECORDS = 1024;
+
+    private static final int MAGIC = 0x464d5443;
+
+    private static final int JOURNAL_MAGIC = 0x464d544a;
+
+    private static final int VERSION = 2;
+
+    private static final int MAGIC_OFFSET = 0;
+
+    private static final int VERSION_OFFSET = 4;
+
+    private static final int ALGORITHM_OFFSET = 8;
+
+    private static final int DIGEST_LENGTH_OFFSET = 12;
+
+    private static final int CAPACITY_OFFSET = 16;
+
+    private static final int COUNT_OFFSET = 20;
+
+    private static final int FINGERPRINT_LENGTH_OFFSET = 24;
+
+    private static final int FINGERPRINT_OFFSET = 28;
+
+    private static final int MAX_FINGERPRINT_LENGTH = 64;
+
+    private static final int HEADER_SIZE = FINGERPRINT_OFFSET + MAX_FINGERPRINT_LENGTH;
+
+    private static final int SLOT_KEY_OFFSET = 0;
+
+    private static final int SLOT_SIZE_OFFSET = 8;
+
+    private static final int SLOT_MODIFIED_OFFSET = 16;
+
+    private static final int SLOT_DIGEST_OFFSET = 24;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The key of empty slots, no path hashes to it. */
+    private static final long EMPTY = 0;
+
+    /** The modification time of entries whose modification time is not known. */
+    private static final long UNKNOWN_MODIFIED = -1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final File file;
+
+    private final File journalFile;
+
+    private final byte[] fingerprint;
+
+    private final HashAlgorithm algorithm;
+
+    private final int digestLength;
+
+    private final int slotSize;
+
+    private final Log log;
+
+    /** The entries of the cache file. */
+    private Table snapshot;
+
+    /** The entries updated since the cache file was written. */
+    private Table changes;
+
+    private FileChannel journal;
+
+    /** Number of complete records in the journal file. */
+    private int journaled;
+
+    /** Whether the journal can be written during the build. */
+    private boolean journaling = true;
+
+    /** Whether the cache file can be replaced during the build, it cannot while mapped on some platforms. */
+    private boolean compactable = true;
+
+    /** Whether the cache file was discarded, it is then replaced on opening. */
+    private boolean stale;
+
+    private int count;
+
+    private FormatterCache(final File file, final byte[] fingerprint, final HashAlgorithm algorithm, final Log log) {
+        if (fingerprint.length > MAX_FINGERPRINT_LENGTH) {
+            throw new IllegalArgumentException("Fingerprint longer than " + MAX_FINGERPRINT_LENGTH + " bytes");
+        }
+        this.file = file;
+        this.journalFile = file == null ? null : new File(file.getPath() + ".journal");
+        this.fingerprint = fingerprint;
+        this.algorithm = algorithm;
+        this.digestLength = algorithm.getDigestLength();
+        this.slotSize = SLOT_DIGEST_OFFSET + this.digestLength;
+        this.log = log;
+        this.changes = newTable(ByteBuffer.allocate(tableSize(INITIAL_CAPACITY)), INITIAL_CAPACITY);
+    }
+
+    /**
+     * Open the cache file, replaying the journal of the updates not compacted yet.
+     *
+     * @param file the cache file
+     * @param fingerprint the fingerprint of the configuration
+     * @param algorithm the hash algorithm of the digests
+     * @param log the log
+     * @return the cache
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static FormatterCache open(final File file, final byte[] fingerprint, final HashAlgorithm algorithm,
+            final Log log) throws IOException {
+        final FormatterCache cache = new FormatterCache(file, fingerprint, algorithm, log);
+        cache.replayJournal();
+        cache.snapshot = cache.readSnapshot();
+        cache.count = cache.snapshot.count + cache.changes.countMissingFrom(cache.snapshot);
+        if (cache.changes.count > 0) {
+            log.debug("Replayed " + cache.changes.count + " journaled formatter cache entries");
+        }
+        // the snapshot is not mapped when the compaction is due, so the new cache file can replace it on any platform
+        cache.compactIfDue(1);
+        return cache;
+    }
+
+    /**
+     * Create a cache only held in memory, for when the cache file cannot be used.
+     *
+     * @param fingerprint the fingerprint of the configuration
+     * @param algorithm the hash algorithm of the digests
+     * @param log the log
+     * @return the cache
+     */
+    static FormatterCache inMemory(final byte[] fingerprint, final HashAlgorithm algorithm, final Log log) {
+        final FormatterCache cache = new FormatterCache(null, fingerprint, algorithm, log);
+        cache.snapshot = cache.newTable(ByteBuffer.allocate(cache.tableSize(INITIAL_CAPACITY)), INITIAL_CAPACITY);
+        return cache;
+    }
+
+    /**
+     * Compute the key of a path. The path is built once per file by the caller, the lookups by key then read the
+     * slots in place.
+     *
+     * @param path the path
+     * @return the key
+     */
+    static long keyOf(final String path) {
+        final long key = Hashing.murmur3_128().hashUnencodedChars(path).asLong();
+        return key == EMPTY ? 1 : key;
+    }
+
+    /**
+     * @return true if the file of the key was cached with the given size and modification time
+     */
+    boolean isUnchanged(final long key, final long size, final long lastModified) {
+        this.lock.readLock().lock();
+        try {
+            final Table table = tableOf(key);
+            if (table == null) {
+                return false;
+            }
+            final int slot = table.slotOf(key);
+            return table.buffer.getLong(slot + SLOT_SIZE_OFFSET) == size
+                    && table.buffer.getLong(slot + SLOT_MODIFIED_OFFSET) == lastModified
+                    && lastModified != UNKNOWN_MODIFIED;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the file of the key was cached with the given digest
+     */
+    boolean hasDigest(final long key, final byte[] digest) {
+        this.lock.readLock().lock();
+        try {
+            final Table table = tableOf(key);
+            if (table == null) {
+                return false;
+            }
+            final int offset = table.slotOf(key) + SLOT_DIGEST_OFFSET;
+            for (int i = 0; i < this.digestLength; i++) {
+                if (table.buffer.get(offset + i) != digest[i]) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Record the digest, size and modification time of a formatted file, and append it to the journal.
+     *
+     * @param key the key of the path of the file
+     * @param digest the digest of the formatted content
+     * @param size the size of the file
+     * @param lastModified the modification time of the file, or -1 if it is not to be trusted
+     */
+    void put(final long key, final byte[] digest, final long size, final long lastModified) {
+        final ByteBuffer record = ByteBuffer.allocate(this.slotSize);
+        record.putLong(SLOT_KEY_OFFSET, key);
+        record.putLong(SLOT_SIZE_OFFSET, size);
+        record.putLong(SLOT_MODIFIED_OFFSET, lastModified);
+        record.position(SLOT_DIGEST_OFFSET);
+        record.put(digest, 0, this.digestLength);
+        record.rewind();
+
+        this.lock.writeLock().lock();
+        try {
+            if (tableOf(key) == null) {
+                this.count++;
+            }
+            putChange(record, 0);
+            if (this.file != null && this.journaling) {
+                journal(record);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of cached files
+     */
+    int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.count;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Close the cache, compacting the updates into the cache file if the journal grew large enough, keeping them in
+     * the journal otherwise.
+     */
+    @Override
+    public void close() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            if (this.file == null) {
+                return;
+            }
+            compactIfDue(1);
+            closeJournal();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private Table tableOf(final long key) {
+        if (this.changes.contains(key)) {
+            return this.changes;
+        }
+        if (this.snapshot.contains(key)) {
+            return this.snapshot;
+        }
+        return null;
+    }
+
+    private void putChange(final ByteBuffer records, final int offset) {
+        if ((this.changes.count + 1) * 4L > this.changes.capacity * 3L) {
+            final int capacity = this.changes.capacity * 2;
+            final Table grown = newTable(ByteBuffer.allocate(tableSize(capacity)), capacity);
+            grown.putAll(this.changes);
+            this.changes = grown;
+        }
+        this.changes.put(records, offset);
+    }
+
+    /**
+     * Append a record to the journal, compacting the journaled records into the cache file once the journal grew large
+     * enough.
+     */
+    private void journal(final ByteBuffer record) {
+        try {
+            if (this.journal == null) {
+                this.journal = FileChannel.open(this.journalFile.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                if (this.journaled == 0) {
+                    this.journal.truncate(0);
+                    writeFully(this.journal, newHeader(JOURNAL_MAGIC, 0, 0), 0);
+                } else {
+                    // drop a record torn by an interrupted build
+                    this.journal.truncate(journalSize(this.journaled));
+                }
+            }
+            writeFully(this.journal, record, journalSize(this.journaled));
+            this.journaled++;
+            compactIfDue(MIN_COMPACTION_RECORDS);
+        } catch (final IOException e) {
+            this.log.warn("Cannot write formatter cache journal, the cache is only kept in memory", e);
+            this.journaling = false;
+            closeJournal();
+        }
+    }
+
+    private void closeJournal() {
+        try {
+            if (this.journal != null) {
+                this.journal.close();
+            }
+        } catch (final IOException e) {
+            this.log.debug(e);
+        }
+        this.journal = null;
+    }
+
+    /**
+     * Read the records of the journal into the changes.
+     */
+    private void replayJournal() throws IOException {
+        if (!this.journalFile.exists()) {
+            return;
+        }
+        final ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(this.journalFile.toPath()));
+        if (content.capacity() < HEADER_SIZE || !isValidHeader(content, JOURNAL_MAGIC)) {
+            Files.delete(this.journalFile.toPath());
+            return;
+        }
+        // a record torn by an interrupted build is ignored
+        for (int offset = HEADER_SIZE; offset + this.slotSize <= content.capacity(); offset += this.slotSize) {
+            if (content.getLong(offset + SLOT_KEY_OFFSET) != EMPTY) {
+                putChange(content, offset);
+            }
+            this.journaled++;
+        }
+    }
+
+    /**
+     * Compact the journal into the cache file if it grew large enough. A cache file which cannot be replaced, as when
+     * mapped on some platforms, is left to the next opening and the updates are only journaled until then.
+     *
+     * @param minRecords the minimum number of journaled records worth a compaction
+     */
+    private void compactIfDue(final int minRecords) throws IOException {
+        if (isCompactionDue(this.snapshot.count, minRecords) && !compact()) {
+            this.compactable = false;
+        }
+    }
+
+    /**
+     * @return true if the cache file is corrupted, or the journal holds at least the minimum number of records and
+     *         half as many records as the cache file has entries, which a missing cache file always has
+     */
+    private boolean isCompactionDue(final int snapshotEntries, final int minRecords) {
+        return this.compactable
+                && (this.stale || this.journaled >= Math.max(minRecords, snapshotEntries / 2));
+    }
+
+    private long journalSize(final int records) {
+        return HEADER_SIZE + (long) records * this.slotSize;
+    }
+
+    /**
+     * Read the cache file, memory mapped unless it is to be replaced right away.
+     */
+    private Table readSnapshot() throws IOException {
+        this.stale = this.file.exists();
+        if (this.stale) {
+            try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+                final long fileSize = channel.size();
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                if (fileSize >= HEADER_SIZE && readFully(channel, header) && isValidHeader(header, MAGIC)) {
+                    final int capacity = header.getInt(CAPACITY_OFFSET);
+                    if (Integer.bitCount(capacity) == 1 && fileSize == tableSize(capacity)) {
+                        this.stale = false;
+                        ByteBuffer buffer;
+                        if (!isCompactionDue(header.getInt(COUNT_OFFSET), 1)) {
+                            buffer = channel.map(MapMode.READ_ONLY, 0, fileSize);
+                        } else {
+                            buffer = ByteBuffer.allocate((int) fileSize);
+                            readFully(channel, buffer);
+                        }
+                        return new Table(buffer, capacity, header.getInt(COUNT_OFFSET));
+                    }
+                    this.log.info("Corrupted formatter cache, discarding the cache");
+                }
+            }
+        }
+        return newTable(ByteBuffer.allocate(tableSize(INITIAL_CAPACITY)), INITIAL_CAPACITY);
+    }
+
+    /**
+     * Write the entries of the cache file and the changes to a new cache file, atomically replacing the cache file,
+     * and empty the journal. A failure to replace the cache file leaves the journal to the next build.
+     *
+     * @return true if the cache file was replaced
+     */
+    private boolean compact() throws IOException {
+        int capacity = INITIAL_CAPACITY;
+        while (this.count * 4L > capacity * 3L) {
+            capacity *= 2;
+        }
+
+        final File tmp = new File(this.file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, tableSize(capacity));
+            final Table table = newTable(buffer, capacity);
+            table.putAll(this.snapshot);
+            table.putAll(this.changes);
+            buffer.putInt(COUNT_OFFSET, table.count);
+            buffer.force();
+        }
+        try {
+            Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+            this.log.debug("Cannot replace the formatter cache file, keeping the journal", e);
+            Files.deleteIfExists(tmp.toPath());
+            return false;
+        }
+
+        this.journaled = 0;
+        this.snapshot = readSnapshot();
+        this.changes = newTable(ByteBuffer.allocate(tableSize(INITIAL_CAPACITY)), INITIAL_CAPACITY);
+        if (this.journal != null) {
+            this.journal.truncate(HEADER_SIZE);
+        } else {
+            Files.deleteIfExists(this.journalFile.toPath());
+        }
+        return true;
+    }
+
+    private int tableSize(final int capacity) {
+        return HEADER_SIZE + capacity * this.slotSize;
+    }
+
+    private ByteBuffer newHeader(final int magic, final int capacity, final int entries) {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC_OFFSET, magic);
+        header.putInt(VERSION_OFFSET, VERSION);
+        header.putInt(ALGORITHM_OFFSET, this.algorithm.getId());
+        header.putInt(DIGEST_LENGTH_OFFSET, this.digestLength);
+        header.putInt(CAPACITY_OFFSET, capacity);
+        header.putInt(COUNT_OFFSET, entries);
+        header.putInt(FINGERPRINT_LENGTH_OFFSET, this.fingerprint.length);
+        header.position(FINGERPRINT_OFFSET);
+        header.put(this.fingerprint);
+        header.rewind();
+        return header;
+    }
+
+    private boolean isValidHeader(final ByteBuffer header, final int magic) {
+        if (header.getInt(MAGIC_OFFSET) != magic || header.getInt(VERSION_OFFSET) != VERSION) {
+            this.log.info("Unsupported formatter cache format, discarding the cache");
+            return false;
+        }
+        if (header.getInt(ALGORITHM_OFFSET) != this.algorithm.getId()
+                || header.getInt(DIGEST_LENGTH_OFFSET) != this.digestLength) {
+            this.log.info("Formatter cache hash algorithm changed, discarding the cache");
+            return false;
+        }
+        final int fingerprintLength = header.getInt(FINGERPRINT_LENGTH_OFFSET);
+        boolean sameFingerprint = fingerprintLength == this.fingerprint.length;
+        for (int i = 0; sameFingerprint && i < fingerprintLength; i++) {
+            sameFingerprint = header.get(FINGERPRINT_OFFSET + i) == this.fingerprint[i];
+        }
+        if (!sameFingerprint) {
+            this.log.info("Formatter configuration changed, discarding the cache");
+        }
+        return sameFingerprint;
+    }
+
+    /**
+     * Create an empty table in the buffer. The extended part of a mapped file has unspecified content, so every slot
+     * is explicitly marked empty.
+     */
+    private Table newTable(final ByteBuffer buffer, final int capacity) {
+        buffer.duplicate().put(newHeader(MAGIC, capacity, 0));
+        for (int slot = HEADER_SIZE; slot < tableSize(capacity); slot += this.slotSize) {
+            buffer.putLong(slot + SLOT_KEY_OFFSET, EMPTY);
+        }
+        return new Table(buffer, capacity, 0);
+    }
+
+    private static boolean readFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+            throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    /**
+     * An open addressing hash table of slots, following a header in a buffer. The table is never more than three
+     * quarters full so there always is an empty slot.
+     */
+    private final class Table {
+
+        private final ByteBuffer buffer;
+
+        private final int capacity;
+
+        private int count;
+
+        Table(final ByteBuffer buffer, final int capacity, final int count) {
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.count = count;
+        }
+
+        /**
+         * Find the slot holding the key, or the empty slot where it belongs.
+         */
+        int slotOf(final long key) {
+            final int mask = this.capacity - 1;
+            int index = (int) (key ^ key >>> 32) & mask;
+            while (true) {
+                final int slot = HEADER_SIZE + index * FormatterCache.this.slotSize;
+                final long slotKey = this.buffer.getLong(slot + SLOT_KEY_OFFSET);
+                if (slotKey == key || slotKey == EMPTY) {
+                    return slot;
+                }
+                index = index + 1 & mask;
+            }
+        }
+
+        boolean contains(final long key) {
+            return this.buffer.getLong(slotOf(key) + SLOT_KEY_OFFSET) == key;
+        }
+
+        /**
+         * Copy the slot at the given offset of the source into the table, the key last so that an interrupted copy
+         * leaves an empty slot.
+         */
+        void put(final ByteBuffer source, final int offset) {
+            final long key = source.getLong(offset + SLOT_KEY_OFFSET);
+            final int slot = slotOf(key);
+            final boolean added = this.buffer.getLong(slot + SLOT_KEY_OFFSET) == EMPTY;
+            for (int i = SLOT_SIZE_OFFSET; i < FormatterCache.this.slotSize; i++) {
+                this.buffer.put(slot + i, source.get(offset + i));
+            }
+            if (added) {
+                this.buffer.putLong(slot + SLOT_KEY_OFFSET, key);
+                this.count++;
+            }
+        }
+
+        void putAll(final Table table) {
+            for (int slot = HEADER_SIZE; slot < tableSize(table.capacity); slot += FormatterCache.this.slotSize) {
+                if (table.buffer.getLong(slot + SLOT_KEY_OFFSET) != EMPTY) {
+                    put(table.buffer, slot);
+                }
+            }
+        }
+
+        int countMissingFrom(final Table table) {
+            int missing = 0;
+            for (int slot = HEADER_SIZE; slot < tableSize(this.capacity); slot += FormatterCache.this.slotSize) {
+                final long key = this.buffer.getLong(slot + SLOT_KEY_OFFSET);
+                if (key != EMPTY && !table.contains(key)) {
+                    missing++;
+                }
+            }
+            return missing;
+        }
+    }
+
+}
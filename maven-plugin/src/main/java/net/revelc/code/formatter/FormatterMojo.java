@@ -17,27 +17,30 @@
 
 package net.revelc.code.formatter;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import net.revelc.code.formatter.git.ChangedFiles;
+import net.revelc.code.formatter.java.ImportOrder;
 import net.revelc.code.formatter.java.JavaFormatter;
 import net.revelc.code.formatter.javascript.JavascriptFormatter;
 import net.revelc.code.formatter.model.ConfigReadException;
@@ -54,10 +57,8 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.codehaus.plexus.resource.ResourceManager;
 import org.codehaus.plexus.resource.loader.FileResourceLoader;
 import org.codehaus.plexus.resource.loader.ResourceNotFoundException;
-import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.ReaderFactory;
 import org.codehaus.plexus.util.StringUtils;
-import org.codehaus.plexus.util.WriterFactory;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.formatter.CodeFormatter;
 import org.eclipse.jface.text.BadLocationException;
@@ -65,7 +66,9 @@ import org.eclipse.text.edits.MalformedTreeException;
 import org.xml.sax.SAXException;
 
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 
 /**
  * A Maven plugin mojo to format Java source code using the Eclipse code formatter.
@@ -84,8 +87,14 @@ public class FormatterMojo extends AbstractMojo implements ConfigurationSource {
 
     private static final String FILE_S = " file(s)";
 
-    /** The Constant CACHE_PROPERTIES_FILENAME. */
-    private static final String CACHE_PROPERTIES_FILENAME = "maven-java-formatter-cache.properties";
+    /** The Constant CACHE_FILENAME. */
+    private static final String CACHE_FILENAME = "maven-java-formatter-cache.bin";
+
+    /** The name of the file recording the fingerprint of the source directories. */
+    private static final String SOURCE_TREE_FILENAME = "formatter-source-tree.bin";
+
+    /** Modification times more recent than this are not trusted when comparing them to the cached ones. */
+    private static final long RACY_TIMESTAMP_MILLIS = 2000;
 
     /** The Constant DEFAULT_INCLUDES. */
     private static final String[] DEFAULT_INCLUDES = new String[] { "**/*.java", "**/*.js" };
@@ -223,9 +232,175 @@ public class FormatterMojo extends AbstractMojo implements ConfigurationSource {
     @Parameter(defaultValue = "src/config/eclipse/formatter/java.importorder", property = "importOrderFile", required = true)
     private String importOrderFile;
 
-    private final JavaFormatter javaFormatter = new JavaFormatter();
+    /**
+     * Only sort the imports of the Java files, without running the Eclipse formatter, e.g. to only enforce the import
+     * order or for a quick check. The Eclipse formatter configuration files are not read, and Javascript files are not
+     * processed.
+     *
+     * @since 2.0.2
+     */
+    @Parameter(defaultValue = "false", property = "formatter.importsOnly")
+    private boolean importsOnly;
+
+    /**
+     * Remove the unused single type imports of the Java files when sorting their imports. Identifiers in Javadoc
+     * comments count as uses, static and on demand imports are always kept.
+     *
+     * @since 2.0.2
+     */
+    @Parameter(defaultValue = "false", property = "formatter.removeUnusedImports")
+    private boolean removeUnusedImports;
+
+    /**
+     * Only normalize the line endings of the files to the configured line ending, without running the formatters,
+     * e.g. to fix the files checked in with the line endings of another platform. No configuration file is needed.
+     * The line endings are replaced without decoding the files when the encoding is ASCII compatible, as UTF-8 is.
+     *
+     * @since 2.0.2
+     */
+    @Parameter(defaultValue = "false", property = "formatter.lineEndingsOnly")
+    private boolean lineEndingsOnly;
 
-    private final JavascriptFormatter jsFormatter = new JavascriptFormatter();
+    /**
+     * Number of threads used to format files in parallel. When not specified or lower than
+     * one, the number of available processors is used.
+     *
+     * @since 2.0.2
+     */
+    @Parameter(defaultValue = "0", property = "formatter.threads")
+    private int threads;
+
+    /**
+     * Hash algorithm used by the cache to detect changed files, computed over the raw bytes of the files. Valid
+     * values are:
+     * <ul>
+     * <li><b>"MURMUR3_128"</b> - 128 bits Murmur3, fast non-cryptographic hash</li>
+     * <li><b>"FARMHASH64"</b> - 64 bits FarmHash fingerprint, fast non-cryptographic hash</li>
+     * <li><b>"SHA256"</b> - SHA-256 cryptographic digest</li>
+     * <li><b>"SHA512"</b> - SHA-512 cryptographic digest</li>
+     * </ul>
+     * Changing the algorithm discards the cache.
+     *
+     * @since 2.0.2
+     */
+    @Parameter(defaultValue = "MURMUR3_128", property = "formatter.cache.hashAlgorithm", required = true)
+    private HashAlgorithm hashAlgorithm;
+
+    /**
+     * Directory of a cache shared by all the projects and checkouts of the machine, e.g.
+     * <code>${user.home}/.m2/formatter-cache</code>. It records what each file content formats to with each
+     * configuration, so that contents already formatted in another module, checkout or branch are not formatted
+     * again. The cache file is bounded to 16 megabytes, the oldest entries being evicted beyond. Its entries are keyed
+     * by SHA-256 digests whatever the <code>hashAlgorithm</code>, as a collision would replace a content with the
+     * output of another. Not used when not specified.
+     *
+     * @since 2.0.2
+     */
+    @Parameter(property = "formatter.cache.sharedDirectory")
+    private File sharedCacheDirectory;
+
+    /**
+     * Maximum size in megabytes of the store of formatted code, which replays the formatting of code seen before,
+     * e.g. on another branch, without running the formatter. The store lives in the shared cache directory when one
+     * is specified, in the target directory otherwise. The least recently used entries are evicted beyond this size.
+     * Not used by default, as each formatted file is then also compressed and stored, zero disables the store.
+     *
+     * @since 2.0.2
+     */
+    @Parameter(defaultValue = "0", property = "formatter.cache.outputStoreSize")
+    private int outputStoreSize;
+
+    /**
+     * Record a fingerprint of the source directories, built from the modification times of the directories and the
+     * sizes and modification times of the files, once every file is formatted. The next run is skipped when the
+     * fingerprint still matches, and the directories whose fingerprint matches are not scanned otherwise.
+     *
+     * @since 2.0.2
+     */
+    @Parameter(defaultValue = "true", property = "formatter.cache.sourceTreeFingerprint")
+    private boolean sourceTreeFingerprint;
+
+    /**
+     * Only format the files which differ from this revision of the local git repository holding the base directory,
+     * modified or untracked, e.g. <code>origin/master</code> or <code>HEAD~1</code>. The revision is read from the
+     * repository as is, nothing is fetched. All the files are formatted when the base directory is not in a git
+     * repository or the revision cannot be read. Not used when not specified.
+     *
+     * @since 2.0.2
+     */
+    @Parameter(property = "formatter.changedSince")
+    private String changedSince;
+
+    /**
+     * Version of this plugin, which also versions the Eclipse formatters it embeds.
+     */
+    @Parameter(defaultValue = "${plugin.version}", readonly = true)
+    private String pluginVersion;
+
+    private Map<String, String> javaFormattingOptions;
+
+    private Map<String, String> jsFormattingOptions;
+
+    private List<String> importOrder;
+
+    private ImportOrder compiledImportOrder;
+
+    private byte[] fingerprint;
+
+    private FormatterCache hashCache;
+
+    private SharedFormatterCache sharedCache;
+
+    private FormattedOutputStore outputStore;
+
+    private String basedirPath;
+
+    private Charset charset;
+
+    /** Number of files found in more than one source directory. */
+    private int duplicateCount;
+
+    /** The directories known to hold formatted files only. */
+    private Set<Path> unchangedDirectories = Collections.emptySet();
+
+    /** The files differing from the changedSince revision, null to format all the files. */
+    private ChangedFiles changedFiles;
+
+    /** The fingerprint of the source directories computed before formatting, null when not recorded. */
+    private SourceTreeFingerprint sourceTree;
+
+    /** Whether the line endings can be replaced in the encoded content. */
+    private boolean asciiCompatible;
+
+    /**
+     * The eclipse {@link CodeFormatter} is not thread safe, each formatting thread gets its own instance.
+     */
+    private final ThreadLocal<JavaFormatter> javaFormatter = new ThreadLocal<JavaFormatter>() {
+        @Override
+        protected JavaFormatter initialValue() {
+            final JavaFormatter formatter = new JavaFormatter();
+            if (FormatterMojo.this.javaFormattingOptions != null) {
+                formatter.setImportsOnly(FormatterMojo.this.importsOnly);
+                formatter.setRemoveUnusedImports(FormatterMojo.this.removeUnusedImports);
+                formatter.init(new HashMap<>(FormatterMojo.this.javaFormattingOptions), FormatterMojo.this);
+                formatter.setImportOrder(FormatterMojo.this.compiledImportOrder);
+                formatter.setOutputStore(FormatterMojo.this.outputStore);
+            }
+            return formatter;
+        }
+    };
+
+    private final ThreadLocal<JavascriptFormatter> jsFormatter = new ThreadLocal<JavascriptFormatter>() {
+        @Override
+        protected JavascriptFormatter initialValue() {
+            final JavascriptFormatter formatter = new JavascriptFormatter();
+            if (FormatterMojo.this.jsFormattingOptions != null) {
+                formatter.init(new HashMap<>(FormatterMojo.this.jsFormattingOptions), FormatterMojo.this);
+                formatter.setOutputStore(FormatterMojo.this.outputStore);
+            }
+            return formatter;
+        }
+    };
 
     /**
      * Execute.
@@ -252,90 +427,272 @@ public class FormatterMojo extends AbstractMojo implements ConfigurationSource {
             }
             getLog().info("Using '" + this.encoding + "' encoding to format source files.");
         }
-
-        final List<File> files = new ArrayList<>();
-        try {
-            if (this.directories != null) {
-                for (final File directory : this.directories) {
-                    if (directory.exists() && directory.isDirectory()) {
-                        files.addAll(addCollectionFiles(directory));
-                    }
-                }
-            } else { // Using defaults of source main and test dirs
-                if (this.sourceDirectory != null && this.sourceDirectory.exists()
-                        && this.sourceDirectory.isDirectory()) {
-                    files.addAll(addCollectionFiles(this.sourceDirectory));
-                }
-                if (this.testSourceDirectory != null && this.testSourceDirectory.exists()
-                        && this.testSourceDirectory.isDirectory()) {
-                    files.addAll(addCollectionFiles(this.testSourceDirectory));
+        this.charset = Charset.forName(this.encoding);
+        this.asciiCompatible = LineEnding.isAsciiCompatible(this.charset);
+
+        final int threadCount = getThreadCount();
+        getLog().debug("Formatting using " + threadCount + " thread(s)");
+
+        final List<Path> roots = getSourceRoots();
+        this.changedFiles = findChangedFiles();
+        byte[] sourceTreeSettings = null;
+        // the fingerprint is only recorded once every file is formatted
+        if (this.sourceTreeFingerprint && this.changedFiles == null) {
+            final SourceTreeFingerprint sourceTree = computeSourceTree(roots, startClock);
+            if (sourceTree != null && sourceTree.getFileCount() > 0) {
+                // the formatters are only prepared by the pipeline, once the fingerprint does not match
+                sourceTreeSettings = getSourceTreeSettings();
+                final SourceTreeFingerprint previous = SourceTreeFingerprint.read(getSourceTreeFile(), getLog());
+                if (sourceTree.matches(previous, sourceTreeSettings)) {
+                    getLog().info("Source files unchanged since they were last formatted");
+                    return;
                 }
+                this.unchangedDirectories = sourceTree.getUnchangedDirectories(previous, sourceTreeSettings);
+                this.sourceTree = sourceTree;
             }
-        } catch (final IOException e) {
-            throw new MojoExecutionException("Unable to find files using includes/excludes", e);
         }
 
-        final int numberOfFiles = files.size();
-        final Log log = getLog();
-        log.info("Number of files to be formatted: " + numberOfFiles);
+        final ResultCollector rc = new ResultCollector();
+        final FormatterPipeline pipeline = new FormatterPipeline(threadCount) {
+            @Override
+            protected void discover() throws Exception {
+                discoverFiles(this, roots);
+            }
 
-        if (numberOfFiles > 0) {
-            createCodeFormatter();
-            final ResultCollector rc = new ResultCollector();
-            final Properties hashCache = readFileHashCacheFile();
-
-            final String basedirPath = getBasedirPath();
-            for (int i = 0, n = files.size(); i < n; i++) {
-                final File file = files.get(i);
-                if (file.exists()) {
-                    if (file.canWrite()) {
-                        formatFile(file, rc, hashCache, basedirPath);
-                    } else {
-                        rc.readOnlyCount++;
-                    }
-                } else {
-                    rc.failCount++;
-                }
+            @Override
+            protected void start() throws MojoExecutionException {
+                prepareFormatters();
+                FormatterMojo.this.hashCache = readFileHashCacheFile(FormatterMojo.this.fingerprint);
+                FormatterMojo.this.sharedCache = openSharedCache();
+                FormatterMojo.this.outputStore = openOutputStore();
+                FormatterMojo.this.basedirPath = getBasedirPath();
             }
 
-            storeFileHashCache(hashCache);
+            @Override
+            protected boolean read(final FileTask task) {
+                return readFile(task, rc);
+            }
+
+            @Override
+            protected void format(final FileTask task) {
+                formatCode(task);
+            }
+
+            @Override
+            protected void write(final FileTask task) throws MojoFailureException, MojoExecutionException {
+                writeFile(task, rc);
+            }
+        };
+        pipeline.run();
+
+        if (pipeline.getSubmitted() > 0) {
+            storeFileHashCache(this.hashCache);
 
             final long endClock = System.currentTimeMillis();
 
-            log.info("Successfully formatted:          " + rc.successCount + FILE_S);
-            log.info("Fail to format:                  " + rc.failCount + FILE_S);
-            log.info("Skipped:                         " + rc.skippedCount + FILE_S);
-            log.info("Read only skipped:               " + rc.readOnlyCount + FILE_S);
+            final Log log = getLog();
+            log.info("Successfully formatted:          " + rc.successCount.get() + FILE_S);
+            log.info("Fail to format:                  " + rc.failCount.get() + FILE_S);
+            log.info("Skipped:                         " + rc.skippedCount.get() + FILE_S);
+            log.info("Read only skipped:               " + rc.readOnlyCount.get() + FILE_S);
+            log.info("Duplicates skipped:              " + this.duplicateCount + FILE_S);
             log.info("Approximate time taken:          " + ((endClock - startClock) / 1000) + "s");
         }
+        if (this.sourceTree != null && rc.failCount.get() == 0) {
+            storeSourceTree(this.sourceTree, sourceTreeSettings);
+        }
     }
 
     /**
-     * Add source files to the files list.
+     * Load the formatting options and compute the fingerprint of the configuration, unless already done.
      *
-     * @param files the files
-     * @throws IOException Signals that an I/O exception has occurred.
+     * @throws MojoExecutionException the mojo execution exception
      */
-    List<File> addCollectionFiles(final File newBasedir) throws IOException {
-        final DirectoryScanner ds = new DirectoryScanner();
-        ds.setBasedir(newBasedir);
-        if (this.includes != null && this.includes.length > 0) {
-            ds.setIncludes(this.includes);
-        } else {
-            ds.setIncludes(DEFAULT_INCLUDES);
+    private void prepareFormatters() throws MojoExecutionException {
+        if (this.fingerprint != null) {
+            return;
+        }
+        if (!this.lineEndingsOnly) {
+            createCodeFormatter();
+        }
+        this.fingerprint = getConfigurationFingerprint();
+    }
+
+    /**
+     * Read the files of the changedSince revision from the local git repository, if specified.
+     *
+     * @return the changed files, or null to format all the files
+     */
+    private ChangedFiles findChangedFiles() {
+        if (StringUtils.isEmpty(this.changedSince)) {
+            return null;
+        }
+        try {
+            final ChangedFiles changed = ChangedFiles.since(this.basedir, this.changedSince);
+            if (changed == null) {
+                getLog().warn("No git repository found in " + this.basedir + ", formatting all the files");
+            } else {
+                getLog().info("Formatting the files changed since " + this.changedSince);
+            }
+            return changed;
+        } catch (final IOException | RuntimeException e) {
+            // a repository in a format not understood falls back to a full scan as well
+            getLog().warn("Cannot read revision " + this.changedSince
+                    + " from the git repository, formatting all the files", e);
+            return null;
+        }
+    }
+
+    /**
+     * Resolve the real paths of the source directories.
+     *
+     * @return the source directories which exist
+     * @throws MojoExecutionException the mojo execution exception
+     */
+    private List<Path> getSourceRoots() throws MojoExecutionException {
+        final List<File> roots = new ArrayList<>();
+        if (this.directories != null) {
+            roots.addAll(Arrays.asList(this.directories));
+        } else { // Using defaults of source main and test dirs
+            roots.add(this.sourceDirectory);
+            roots.add(this.testSourceDirectory);
+        }
+
+        final List<Path> realRoots = new ArrayList<>();
+        for (final File root : roots) {
+            if (root != null && root.exists() && root.isDirectory()) {
+                try {
+                    realRoots.add(root.toPath().toRealPath());
+                } catch (final IOException e) {
+                    throw new MojoExecutionException("Unable to resolve source directory " + root, e);
+                }
+            }
+        }
+        return realRoots;
+    }
+
+    /**
+     * Compute the fingerprint of the source directories.
+     *
+     * @param roots the real paths of the source directories
+     * @param startClock the time the run started
+     * @return the fingerprint, or null if it cannot be computed
+     */
+    private SourceTreeFingerprint computeSourceTree(final List<Path> roots, final long startClock) {
+        try {
+            return SourceTreeFingerprint.compute(createSourceScanner(), roots, startClock);
+        } catch (final Exception e) {
+            getLog().warn("Cannot compute the fingerprint of the source directories", e);
+            return null;
         }
+    }
 
-        ds.setExcludes(this.excludes);
-        ds.addDefaultExcludes();
-        ds.setCaseSensitive(false);
-        ds.setFollowSymlinks(false);
-        ds.scan();
+    /**
+     * Record the fingerprint of the formatted source directories for the next run, unless a file could still change
+     * unnoticed. The fingerprint is the one computed before the run, updated with the files the run wrote, so that the
+     * files changed by another process during the run are still formatted by the next one.
+     *
+     * @param sourceTree the fingerprint of the source directories
+     * @param settings the digest of the settings
+     */
+    private void storeSourceTree(final SourceTreeFingerprint sourceTree, final byte[] settings) {
+        if (sourceTree.isRacy()) {
+            getLog().debug("Source files modified too recently, not recording the source tree fingerprint");
+            return;
+        }
+        try {
+            sourceTree.write(getSourceTreeFile(), settings);
+        } catch (final IOException e) {
+            getLog().warn("Cannot store source tree fingerprint", e);
+        }
+    }
+
+    private File getSourceTreeFile() {
+        return new File(this.targetDirectory, SOURCE_TREE_FILENAME);
+    }
+
+    /**
+     * Compute the digest of what the source tree fingerprint depends on besides the source directories: the content
+     * of the configuration files, the parameters of the formatting and the includes and excludes. The configuration
+     * files are hashed as is, without being parsed, so that an unchanged source tree is detected without loading the
+     * formatters.
+     *
+     * @return the digest
+     * @throws MojoExecutionException the mojo execution exception
+     */
+    private byte[] getSourceTreeSettings() throws MojoExecutionException {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        if (!this.lineEndingsOnly) {
+            putResource(hasher, this.importsOnly ? null : this.configFile);
+            putResource(hasher, this.importOrderFile);
+            putResource(hasher, this.importsOnly ? null : this.configJsFile);
+        }
+        putParameters(hasher);
+        for (final String[] patterns : Arrays.asList(this.includes, this.excludes)) {
+            hasher.putInt(patterns == null ? -1 : patterns.length);
+            if (patterns != null) {
+                for (final String pattern : patterns) {
+                    putString(hasher, pattern);
+                }
+            }
+        }
+        return hasher.hash().asBytes();
+    }
 
-        final List<File> foundFiles = new ArrayList<>();
-        for (final String filename : ds.getIncludedFiles()) {
-            foundFiles.add(new File(newBasedir, filename));
+    /**
+     * Discover the source files of each source directory and hand them to the pipeline.
+     *
+     * @param pipeline the pipeline
+     * @param roots the real paths of the source directories
+     * @throws MojoExecutionException the mojo execution exception
+     */
+    private void discoverFiles(final FormatterPipeline pipeline, final List<Path> roots) throws Exception {
+        // the files are formatted while the directories are scanned
+        final SourceScanner scanner = createSourceScanner();
+        scanner.setUnchangedDirectories(this.unchangedDirectories);
+        final ChangedFiles changed = this.changedFiles;
+        final AtomicInteger unchanged = new AtomicInteger();
+        final int numberOfFiles;
+        try {
+            numberOfFiles = scanner.scan(roots, getThreadCount(), new SourceScanner.Visitor() {
+                @Override
+                public void visitFile(final Path file, final BasicFileAttributes attrs) throws Exception {
+                    if (changed != null && !changed.isChanged(file, attrs)) {
+                        unchanged.incrementAndGet();
+                        return;
+                    }
+                    pipeline.submit(file.toFile());
+                }
+            });
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Unable to find files using includes/excludes", e);
+        }
+        getLog().info("Number of files to be formatted: " + (numberOfFiles - unchanged.get()));
+        if (changed != null) {
+            getLog().info("Files unchanged since " + this.changedSince + ": " + unchanged.get());
+        }
+        this.duplicateCount = scanner.getDuplicates();
+        if (this.duplicateCount > 0) {
+            getLog().warn(this.duplicateCount + " file(s) found more than once, check the directories do not overlap");
         }
-        return foundFiles;
+    }
+
+    /**
+     * Create the scanner finding the source files matching the includes and excludes.
+     *
+     * @return the scanner
+     */
+    SourceScanner createSourceScanner() {
+        final String[] patterns = this.includes != null && this.includes.length > 0 ? this.includes
+                : DEFAULT_INCLUDES;
+        return new SourceScanner(patterns, this.excludes);
+    }
+
+    /**
+     * @return the number of formatting threads
+     */
+    private int getThreadCount() {
+        return this.threads > 0 ? this.threads : Runtime.getRuntime().availableProcessors();
     }
 
     /**
@@ -355,174 +712,461 @@ public class FormatterMojo extends AbstractMojo implements ConfigurationSource {
     /**
      * Store file hash cache.
      *
-     * @param props the props
+     * @param cache the cache
+     */
+    private void storeFileHashCache(final FormatterCache cache) {
+        try {
+            cache.close();
+        } catch (final IOException e) {
+            getLog().warn("Cannot store file hash cache file", e);
+        }
+        if (this.sharedCache != null) {
+            try {
+                this.sharedCache.sync();
+            } catch (final IOException e) {
+                getLog().warn("Cannot store shared formatter cache", e);
+            }
+        }
+        if (this.outputStore != null) {
+            try {
+                this.outputStore.sync();
+            } catch (final IOException e) {
+                getLog().warn("Cannot update formatted output store index", e);
+            }
+        }
+    }
+
+    /**
+     * Open the store of formatted code, unless disabled.
+     *
+     * @return the store, or null
      */
-    private void storeFileHashCache(final Properties props) {
-        final File cacheFile = new File(this.targetDirectory, CACHE_PROPERTIES_FILENAME);
-        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(cacheFile))) {
-            props.store(out, null);
+    private FormattedOutputStore openOutputStore() {
+        if (this.outputStoreSize <= 0) {
+            return null;
+        }
+        final File directory = this.sharedCacheDirectory != null ? new File(this.sharedCacheDirectory, "output")
+                : new File(this.targetDirectory, "formatter-output-store");
+        try {
+            return FormattedOutputStore.open(directory, this.fingerprint, this.outputStoreSize * 1024L * 1024L,
+                    getLog());
         } catch (final IOException e) {
-            getLog().warn("Cannot store file hash cache properties file", e);
+            getLog().warn("Cannot open formatted output store, not using it", e);
+            return null;
         }
     }
 
     /**
-     * Read file hash cache file.
+     * Open the shared cache, if configured.
      *
-     * @return the properties
+     * @return the shared cache, or null
      */
-    private Properties readFileHashCacheFile() {
-        final Properties props = new Properties();
+    private SharedFormatterCache openSharedCache() {
+        if (this.sharedCacheDirectory == null) {
+            return null;
+        }
+        try {
+            return SharedFormatterCache.open(this.sharedCacheDirectory, getLog());
+        } catch (final IOException e) {
+            getLog().warn("Cannot open shared formatter cache, not using it", e);
+            return null;
+        }
+    }
+
+    /**
+     * Open file hash cache file. Entries cached with another configuration fingerprint are discarded.
+     *
+     * @param fingerprint the configuration fingerprint
+     * @return the cache
+     */
+    private FormatterCache readFileHashCacheFile(final byte[] fingerprint) {
         final Log log = getLog();
         if (!this.targetDirectory.exists()) {
             this.targetDirectory.mkdirs();
         } else if (!this.targetDirectory.isDirectory()) {
             log.warn("Something strange here as the '" + this.targetDirectory.getPath()
                     + "' supposedly target directory is not a directory.");
-            return props;
+            return FormatterCache.inMemory(fingerprint, this.hashAlgorithm, log);
+        }
+
+        final File cacheFile = new File(this.targetDirectory, CACHE_FILENAME);
+        try {
+            return FormatterCache.open(cacheFile, fingerprint, this.hashAlgorithm, log);
+        } catch (final IOException e) {
+            log.warn("Cannot open file hash cache file", e);
+            return FormatterCache.inMemory(fingerprint, this.hashAlgorithm, log);
         }
+    }
 
-        final File cacheFile = new File(this.targetDirectory, CACHE_PROPERTIES_FILENAME);
-        if (!cacheFile.exists()) {
-            return props;
+    /**
+     * Compute the fingerprint of everything the formatted code depends on besides the source itself: the formatter
+     * options, the import order, whether only the imports are sorted and whether the unused ones are removed, whether
+     * only the line endings are normalized, the line ending, the encoding and the formatter version.
+     *
+     * @return the fingerprint
+     */
+    private byte[] getConfigurationFingerprint() {
+        final Hasher hasher = Hashing.sha512().newHasher();
+        // only the compiler parameters are used when sorting the imports
+        putOptions(hasher, this.importsOnly ? null : this.javaFormattingOptions);
+        putOptions(hasher, this.jsFormattingOptions);
+        if (this.importOrder != null) {
+            for (final String item : this.importOrder) {
+                putString(hasher, item);
+            }
         }
+        putParameters(hasher);
+        return hasher.hash().asBytes();
+    }
 
-        try (final BufferedInputStream stream = new BufferedInputStream(new FileInputStream(cacheFile))) {
-            props.load(stream);
+    /**
+     * Hash the parameters the formatting depends on besides the configuration files.
+     */
+    private void putParameters(final Hasher hasher) {
+        putString(hasher, this.compilerSource);
+        putString(hasher, this.compilerCompliance);
+        putString(hasher, this.compilerTargetPlatform);
+        putString(hasher, this.lineEnding.name());
+        putString(hasher, this.lineEnding.getChars());
+        putString(hasher, this.charset.name());
+        hasher.putBoolean(this.importsOnly);
+        hasher.putBoolean(this.removeUnusedImports);
+        hasher.putBoolean(this.lineEndingsOnly);
+        putString(hasher, this.pluginVersion);
+        putString(hasher, CodeFormatter.class.getPackage().getImplementationVersion());
+    }
+
+    /**
+     * Hash the raw content of a configuration file.
+     */
+    private void putResource(final Hasher hasher, final String name) throws MojoExecutionException {
+        if (StringUtils.isEmpty(name)) {
+            hasher.putInt(-1);
+            return;
+        }
+        this.resourceManager.addSearchPath(FileResourceLoader.ID, this.basedir.getAbsolutePath());
+        try (InputStream in = this.resourceManager.getResourceAsInputStream(name)) {
+            final byte[] content = ByteStreams.toByteArray(in);
+            hasher.putInt(content.length).putBytes(content);
+        } catch (final ResourceNotFoundException e) {
+            hasher.putInt(-1);
         } catch (final IOException e) {
-            log.warn("Cannot load file hash cache properties file", e);
+            throw new MojoExecutionException("Cannot read config file [" + name + "]", e);
+        }
+    }
+
+    private static void putOptions(final Hasher hasher, final Map<String, String> options) {
+        if (options == null) {
+            hasher.putInt(-1);
+            return;
+        }
+        hasher.putInt(options.size());
+        for (final Map.Entry<String, String> option : new TreeMap<>(options).entrySet()) {
+            putString(hasher, option.getKey());
+            putString(hasher, option.getValue());
+        }
+    }
+
+    private static void putString(final Hasher hasher, final String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
         }
-        return props;
     }
 
     /**
-     * Format file.
+     * Read the file and compare its hash to the cached one.
      *
-     * @param file the file
+     * @param task the task
      * @param rc the rc
-     * @param hashCache the hash cache
-     * @param basedirPath the basedir path
+     * @return true if the file needs to be formatted
      */
-    private void formatFile(final File file, final ResultCollector rc, final Properties hashCache,
-            final String basedirPath) throws MojoFailureException, MojoExecutionException {
+    boolean readFile(final FileTask task, final ResultCollector rc) {
+        final File file = task.file;
+        final Log log = getLog();
+        final BasicFileAttributes attributes;
         try {
-            doFormatFile(file, rc, hashCache, basedirPath, false);
-        } catch (IOException | MalformedTreeException | BadLocationException e) {
-            rc.failCount++;
-            getLog().warn(e);
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (final NoSuchFileException e) {
+            rc.failCount.incrementAndGet();
+            return false;
+        } catch (final IOException e) {
+            rc.failCount.incrementAndGet();
+            log.warn(e);
+            return false;
+        }
+        if (!file.canWrite()) {
+            rc.readOnlyCount.incrementAndGet();
+            return false;
+        }
+        task.size = attributes.size();
+        task.lastModified = attributes.lastModifiedTime().toMillis();
+
+        log.debug("Processing file: " + file);
+        try {
+            // the files found in the real source directories need not be canonicalized
+            task.key = FormatterCache.keyOf(file.getPath().substring(this.basedirPath.length()));
+            if (this.hashCache.isUnchanged(task.key, task.size, task.lastModified)) {
+                rc.skippedCount.incrementAndGet();
+                log.debug("File is already formatted, size and modification time unchanged.");
+                return false;
+            }
+
+            task.content = Files.readAllBytes(file.toPath());
+            task.originalHash = this.hashAlgorithm.hash(task.content);
+            if (this.hashCache.hasDigest(task.key, task.originalHash)) {
+                rc.skippedCount.incrementAndGet();
+                log.debug("File is already formatted.");
+                putCacheEntry(task.key, task.originalHash, task.size, task.lastModified);
+                return false;
+            }
+
+            if (this.sharedCache != null) {
+                task.sharedHash = sharedDigestOf(task.content, task.originalHash);
+                task.sharedKey = this.sharedCache.keyOf(this.fingerprint, getFileType(file), task.sharedHash);
+                final byte[] formattedHash = this.sharedCache.get(task.sharedKey);
+                if (Arrays.equals(formattedHash, task.sharedHash)) {
+                    rc.skippedCount.incrementAndGet();
+                    log.debug("File content is already formatted according to the shared cache.");
+                    putCacheEntry(task.key, task.originalHash, task.size, task.lastModified);
+                    return false;
+                }
+                if (formattedHash != null && isDryRun()) {
+                    // the content is known not to be formatted, no need to format it again to tell
+                    task.result = Result.SUCCESS;
+                }
+            }
+            if (task.result == null && this.asciiCompatible && replaceLineEndings(task)) {
+                return true;
+            }
+        } catch (final IOException e) {
+            rc.failCount.incrementAndGet();
+            log.warn(e);
+            return false;
         }
+
+        task.code = new String(task.content, this.charset);
+        return true;
     }
 
     /**
-     * Format individual file.
+     * Normalize the line endings of the content without decoding it. Only normalizing the line endings is enough when
+     * the normalized content is known to be formatted, as with files checked in with the line endings of another
+     * platform.
      *
-     * @param file the file
-     * @param rc the rc
-     * @param hashCache the hash cache
-     * @param basedirPath the basedir path
+     * @param task the task
+     * @return true if the file needs not be formatted
      * @throws IOException Signals that an I/O exception has occurred.
-     * @throws BadLocationException the bad location exception
      */
-    protected void doFormatFile(final File file, final ResultCollector rc, final Properties hashCache,
-            final String basedirPath, final boolean dryRun)
-            throws IOException, BadLocationException, MojoFailureException, MojoExecutionException {
-        final Log log = getLog();
-        log.debug("Processing file: " + file);
-        final String code = readFileAsString(file);
-        final String originalHash = sha512hash(code);
-
-        final String canonicalPath = file.getCanonicalPath();
-        final String path = canonicalPath.substring(basedirPath.length());
-        final String cachedHash = hashCache.getProperty(path);
-        if (cachedHash != null && cachedHash.equals(originalHash)) {
-            rc.skippedCount++;
-            log.debug("File is already formatted.");
-            return;
+    private boolean replaceLineEndings(final FileTask task) throws IOException {
+        final ByteBuffer normalized = this.lineEnding.replaceLineEndings(ByteBuffer.wrap(task.content));
+        if (this.lineEndingsOnly) {
+            task.result = normalized == null ? Result.SKIPPED : Result.SUCCESS;
+            task.formattedContent = normalized == null ? null : toArray(normalized);
+            return true;
+        }
+        if (normalized == null) {
+            return false;
         }
 
-        Result result;
-        if (file.getName().endsWith(".java") && javaFormatter.isInitialized()) {
-            result = this.javaFormatter.formatFile(file, this.lineEnding, dryRun);
-        } else if (file.getName().endsWith(".js") && jsFormatter.isInitialized()) {
-            result = this.jsFormatter.formatFile(file, this.lineEnding, dryRun);
-        } else {
-            result = Result.SKIPPED;
+        final byte[] normalizedContent = toArray(normalized);
+        final byte[] normalizedHash = this.hashAlgorithm.hash(normalizedContent);
+        boolean formatted = this.hashCache.hasDigest(task.key, normalizedHash);
+        if (!formatted && this.sharedCache != null) {
+            final byte[] sharedHash = sharedDigestOf(normalizedContent, normalizedHash);
+            final byte[] sharedKey = this.sharedCache.keyOf(this.fingerprint, getFileType(task.file), sharedHash);
+            formatted = Arrays.equals(this.sharedCache.get(sharedKey), sharedHash);
+        }
+        if (formatted) {
+            getLog().debug("File is formatted once its line endings are normalized.");
+            task.result = Result.SUCCESS;
+            task.formattedContent = normalizedContent;
+        }
+        return formatted;
+    }
+
+    private static byte[] toArray(final ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
         }
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
 
-        switch (result) {
-        case SKIPPED:
-            rc.skippedCount++;
+    /**
+     * Format the code of the file with the formatter of the current thread.
+     *
+     * @param task the task
+     */
+    void formatCode(final FileTask task) {
+        if (task.result != null) {
             return;
-        case SUCCESS:
-            rc.successCount++;
-            break;
-        case FAIL:
-            rc.failCount++;
+        }
+        if (this.lineEndingsOnly) {
+            task.formattedCode = this.lineEnding.replaceLineEndings(task.code);
+            task.result = task.formattedCode == null ? Result.SKIPPED : Result.SUCCESS;
             return;
-        default:
-            break;
         }
-
-        final String formattedCode = readFileAsString(file);
-        final String formattedHash = sha512hash(formattedCode);
-        hashCache.setProperty(path, formattedHash);
-
-        if (originalHash.equals(formattedHash)) {
-            rc.skippedCount++;
-            log.debug("Equal hash code. Not writing result to file.");
+        final String name = task.file.getName();
+        final AbstractCacheableFormatter formatter;
+        if (name.endsWith(".java") && this.javaFormatter.get().isInitialized()) {
+            formatter = this.javaFormatter.get();
+        } else if (name.endsWith(".js") && this.jsFormatter.get().isInitialized()) {
+            formatter = this.jsFormatter.get();
+        } else {
+            task.result = Result.SKIPPED;
             return;
         }
 
-        writeStringToFile(formattedCode, file);
+        try {
+            task.formattedCode = formatter.formatCode(task.code, this.lineEnding);
+            task.result = task.formattedCode == null ? Result.SKIPPED : Result.SUCCESS;
+        } catch (IOException | MalformedTreeException | BadLocationException e) {
+            task.result = Result.FAIL;
+            getLog().warn(e);
+        }
+    }
+
+    /**
+     * Write the formatted code of the file, unless this is a dry run, and update the hash cache.
+     *
+     * @param task the task
+     * @param rc the rc
+     * @throws MojoFailureException the mojo failure exception
+     * @throws MojoExecutionException the mojo execution exception
+     */
+    void writeFile(final FileTask task, final ResultCollector rc)
+            throws MojoFailureException, MojoExecutionException {
+        try {
+            switch (task.result) {
+            case SKIPPED:
+                rc.skippedCount.incrementAndGet();
+                if (task.formattedCode == null && isFormattable(task.file)) {
+                    // the formatter left the code as is, or its line endings
+                    putCacheEntry(task.key, task.originalHash, task.size, task.lastModified);
+                    putSharedCacheEntry(task, task.sharedHash);
+                }
+                break;
+            case SUCCESS:
+                rc.successCount.incrementAndGet();
+                if (task.formattedCode == null && task.formattedContent == null) {
+                    // known to format differently from the shared cache
+                    break;
+                }
+                final byte[] formattedContent = task.formattedContent != null ? task.formattedContent
+                        : task.formattedCode.getBytes(this.charset);
+                final byte[] formattedHash = this.hashAlgorithm.hash(formattedContent);
+                if (task.sharedKey != null) {
+                    putSharedCacheEntry(task, sharedDigestOf(formattedContent, formattedHash));
+                }
+                if (!isDryRun()) {
+                    long lastModified = task.lastModified;
+                    if (Arrays.equals(task.content, formattedContent)) {
+                        getLog().debug("Equal content. Not writing result to file.");
+                    } else {
+                        final Path path = Files.write(task.file.toPath(), formattedContent);
+                        lastModified = Files.getLastModifiedTime(path).toMillis();
+                        if (this.sourceTree != null) {
+                            this.sourceTree.update(path, formattedContent.length, lastModified);
+                        }
+                    }
+                    putCacheEntry(task.key, formattedHash, formattedContent.length, lastModified);
+                }
+                break;
+            case FAIL:
+                rc.failCount.incrementAndGet();
+                break;
+            default:
+                break;
+            }
+        } catch (final IOException e) {
+            rc.failCount.incrementAndGet();
+            getLog().warn(e);
+        }
+        checkResult(task.file, task.result);
     }
 
     /**
-     * sha512hash.
+     * Record the hash of a formatted file along with its size and modification time. A modification time too close
+     * to the current time is not recorded as the file could still change within the timestamp granularity of the
+     * file system, the next run then falls back to comparing the hash.
      *
-     * @param str the str
-     * @return the string
-     * @throws UnsupportedEncodingException the unsupported encoding exception
+     * @param key the cache key of the file
+     * @param digest the digest of the formatted content
+     * @param size the size of the file
+     * @param lastModified the modification time of the file
      */
-    private String sha512hash(final String str) throws UnsupportedEncodingException {
-        return Hashing.sha512().hashBytes(str.getBytes(this.encoding)).toString();
+    private void putCacheEntry(final long key, final byte[] digest, final long size, final long lastModified) {
+        final long recordedModified = System.currentTimeMillis() - lastModified > RACY_TIMESTAMP_MILLIS
+                ? lastModified : -1;
+        this.hashCache.put(key, digest, size, recordedModified);
     }
 
     /**
-     * Read the given file and return the content as a string.
+     * Record what the content of the file formats to in the shared cache, if configured.
      *
-     * @param file the file
-     * @return the string
-     * @throws IOException Signals that an I/O exception has occurred.
+     * @param task the task
+     * @param formattedHash the shared cache digest of the formatted content
      */
-    private String readFileAsString(final File file) throws java.io.IOException {
-        final StringBuilder fileData = new StringBuilder(1000);
-        try (BufferedReader reader = new BufferedReader(ReaderFactory.newReader(file, this.encoding))) {
-            char[] buf = new char[1024];
-            int numRead = 0;
-            while ((numRead = reader.read(buf)) != -1) {
-                final String readData = String.valueOf(buf, 0, numRead);
-                fileData.append(readData);
-                buf = new char[1024];
-            }
+    private void putSharedCacheEntry(final FileTask task, final byte[] formattedHash) {
+        if (task.sharedKey != null) {
+            this.sharedCache.put(task.sharedKey, formattedHash);
         }
-        return fileData.toString();
     }
 
     /**
-     * Write the given string to a file.
+     * Compute the digest of a content in the shared cache, reusing its digest in the hash cache when the hash
+     * algorithm is the same.
      *
-     * @param str the str
-     * @param file the file
-     * @throws IOException Signals that an I/O exception has occurred.
+     * @param content the content
+     * @param hash the digest of the content with the hash algorithm
+     * @return the digest of the content with the algorithm of the shared cache
      */
-    private void writeStringToFile(final String str, final File file) throws IOException {
-        if (!file.exists() && file.isDirectory()) {
-            return;
-        }
+    private byte[] sharedDigestOf(final byte[] content, final byte[] hash) {
+        return this.hashAlgorithm == SharedFormatterCache.ALGORITHM ? hash
+                : SharedFormatterCache.ALGORITHM.hash(content);
+    }
 
-        try (BufferedWriter bw = new BufferedWriter(WriterFactory.newWriter(file, this.encoding))) {
-            bw.write(str);
-        }
+    /**
+     * @return the extension of the file, which selects its formatter
+     */
+    private static String getFileType(final File file) {
+        final String name = file.getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * @return true if a formatter is configured for the file, or if only the line endings are normalized
+     */
+    private boolean isFormattable(final File file) {
+        final String name = file.getName();
+        return this.lineEndingsOnly || name.endsWith(".java") && this.javaFormattingOptions != null
+                || name.endsWith(".js") && this.jsFormattingOptions != null;
+    }
+
+    /**
+     * Whether the formatted code is only compared to the original one and never written to the files.
+     *
+     * @return true for a dry run
+     */
+    protected boolean isDryRun() {
+        return false;
+    }
+
+    /**
+     * Check the result of formatting a file, called once for each file that was not already in the cache.
+     *
+     * @param file the file
+     * @param result the result
+     * @throws MojoFailureException the mojo failure exception
+     * @throws MojoExecutionException the mojo execution exception
+     */
+    protected void checkResult(final File file, final Result result)
+            throws MojoFailureException, MojoExecutionException {
+        // nothing to check when formatting
     }
 
     /**
@@ -531,17 +1175,17 @@ public class FormatterMojo extends AbstractMojo implements ConfigurationSource {
      * @throws MojoExecutionException the mojo execution exception
      */
     private void createCodeFormatter() throws MojoExecutionException {
-        final Map<String, String> javaFormattingOptions = getFormattingOptions(this.configFile);
-        if (javaFormattingOptions != null) {
-            this.javaFormatter.init(javaFormattingOptions, this);
-            this.javaFormatter.setImportOrder(getImportOrder());
+        // the Eclipse formatter is not run when only sorting the imports, nor is its configuration needed
+        this.javaFormattingOptions = getFormattingOptions(this.importsOnly ? null : this.configFile);
+        if (this.javaFormattingOptions != null) {
+            this.importOrder = getImportOrder();
+            this.compiledImportOrder = new ImportOrder(this.importOrder);
         }
-        final Map<String, String> jsFormattingOptions = getFormattingOptions(this.configJsFile);
-        if (jsFormattingOptions != null) {
-            this.jsFormatter.init(jsFormattingOptions, this);
+        if (!this.importsOnly) {
+            this.jsFormattingOptions = getFormattingOptions(this.configJsFile);
         }
         // stop the process if not config files where found
-        if (javaFormattingOptions == null && jsFormattingOptions == null) {
+        if (this.javaFormattingOptions == null && this.jsFormattingOptions == null) {
             throw new MojoExecutionException("You must provide a Java or Javascript configuration file.");
         }
     }
@@ -592,13 +1236,13 @@ public class FormatterMojo extends AbstractMojo implements ConfigurationSource {
 
     class ResultCollector {
 
-        int successCount;
+        final AtomicInteger successCount = new AtomicInteger();
 
-        int failCount;
+        final AtomicInteger failCount = new AtomicInteger();
 
-        int skippedCount;
+        final AtomicInteger skippedCount = new AtomicInteger();
 
-        int readOnlyCount;
+        final AtomicInteger readOnlyCount = new AtomicInteger();
     }
 
     @Override
@@ -623,7 +1267,7 @@ public class FormatterMojo extends AbstractMojo implements ConfigurationSource {
 
     @Override
     public Charset getEncoding() {
-        return Charset.forName(this.encoding);
+        return this.charset;
     }
 
     private List<String> getImportOrder() throws MojoExecutionException {
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Runs files through the stages of formatting: discovery of the files, reading and cache lookup, formatting of the
+ * cache misses and writing of the results. Each stage runs on its own threads and hands the files to the next one
+ * through a bounded queue, so I/O overlaps formatting and the number of files held in memory stays capped.
+ */
+abstract class FormatterPipeline {
+
+    /** Number of queued files per formatting thread. */
+    private static final int QUEUE_SIZE_PER_THREAD = 4;
+
+    private final int threads;
+
+    private final BlockingQueue<FileTask> readQueue;
+
+    private final BlockingQueue<FileTask> formatQueue;
+
+    private final BlockingQueue<FileTask> writeQueue;
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private ExecutorService executor;
+
+    private boolean started;
+
+    private int submitted;
+
+    FormatterPipeline(final int threads) {
+        this.threads = threads;
+        final int capacity = threads * QUEUE_SIZE_PER_THREAD;
+        this.readQueue = new ArrayBlockingQueue<>(capacity);
+        this.formatQueue = new ArrayBlockingQueue<>(capacity);
+        this.writeQueue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Discover the files to format, handing each one to {@link #submit(File)} as soon as it is found.
+     */
+    protected abstract void discover() throws Exception;
+
+    /**
+     * Called once before the first file is submitted.
+     */
+    protected abstract void start() throws Exception;
+
+    /**
+     * Read the file and look it up in the cache.
+     *
+     * @return true if the file needs to be formatted
+     */
+    protected abstract boolean read(FileTask task) throws Exception;
+
+    /**
+     * Format the code read from the file.
+     */
+    protected abstract void format(FileTask task) throws Exception;
+
+    /**
+     * Write the formatted code back to the file and record it in the cache.
+     */
+    protected abstract void write(FileTask task) throws Exception;
+
+    /**
+     * Hand a discovered file to the read stage, blocking while the stage is busy. Files can be discovered by several
+     * threads at once, the lock is only held to start the pipeline, not while waiting for room in the queue.
+     */
+    protected final void submit(final File file) throws Exception {
+        synchronized (this) {
+            if (!this.started) {
+                start();
+                this.started = true;
+            }
+            this.submitted++;
+        }
+        this.readQueue.put(new FileTask(file));
+    }
+
+    /**
+     * @return the number of files discovered, only accurate once the pipeline has run
+     */
+    final synchronized int getSubmitted() {
+        return this.submitted;
+    }
+
+    /**
+     * Run all stages until every discovered file went through them or one of the stages failed.
+     */
+    final void run() throws MojoExecutionException, MojoFailureException {
+        this.executor = Executors.newFixedThreadPool(2 * this.threads + 2);
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    discover();
+                    for (int i = 0; i < FormatterPipeline.this.threads; i++) {
+                        FormatterPipeline.this.readQueue.put(FileTask.END);
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (final Throwable t) {
+                    fail(t);
+                }
+            }
+        });
+
+        final AtomicInteger readers = new AtomicInteger(this.threads);
+        final AtomicInteger formatters = new AtomicInteger(this.threads);
+        for (int i = 0; i < this.threads; i++) {
+            this.executor.execute(new Stage(this.readQueue, readers, this.formatQueue, this.threads) {
+                @Override
+                boolean process(final FileTask task) throws Exception {
+                    return read(task);
+                }
+            });
+            this.executor.execute(new Stage(this.formatQueue, formatters, this.writeQueue, 1) {
+                @Override
+                boolean process(final FileTask task) throws Exception {
+                    format(task);
+                    return true;
+                }
+            });
+        }
+        this.executor.execute(new Stage(this.writeQueue, new AtomicInteger(1), null, 0) {
+            @Override
+            boolean process(final FileTask task) throws Exception {
+                write(task);
+                return false;
+            }
+        });
+        this.executor.shutdown();
+
+        try {
+            while (!this.executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting for the stages to drain
+            }
+        } catch (final InterruptedException e) {
+            this.executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while formatting", e);
+        }
+
+        final Throwable t = this.failure.get();
+        if (t instanceof MojoFailureException) {
+            throw (MojoFailureException) t;
+        } else if (t instanceof MojoExecutionException) {
+            throw (MojoExecutionException) t;
+        } else if (t != null) {
+            throw new MojoExecutionException("Unexpected error while formatting", t);
+        }
+    }
+
+    /**
+     * Record the first failure and stop all the stages.
+     */
+    private void fail(final Throwable t) {
+        if (this.failure.compareAndSet(null, t)) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * One thread of a stage, taking files from its input queue until it gets the end marker. The last thread of a
+     * stage to finish passes the end marker on to each thread of the next stage.
+     */
+    private abstract class Stage implements Runnable {
+
+        private final BlockingQueue<FileTask> input;
+
+        private final AtomicInteger running;
+
+        private final BlockingQueue<FileTask> output;
+
+        private final int consumers;
+
+        Stage(final BlockingQueue<FileTask> input, final AtomicInteger running, final BlockingQueue<FileTask> output,
+                final int consumers) {
+            this.input = input;
+            this.running = running;
+            this.output = output;
+            this.consumers = consumers;
+        }
+
+        /**
+         * @return true if the task is passed on to the next stage
+         */
+        abstract boolean process(FileTask task) throws Exception;
+
+        @Override
+        public void run() {
+            try {
+                for (FileTask task = this.input.take(); task != FileTask.END; task = this.input.take()) {
+                    if (process(task)) {
+                        this.output.put(task);
+                    }
+                }
+                if (this.running.decrementAndGet() == 0) {
+                    for (int i = 0; i < this.consumers; i++) {
+                        this.output.put(FileTask.END);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final Throwable t) {
+                fail(t);
+            }
+        }
+    }
+
+}
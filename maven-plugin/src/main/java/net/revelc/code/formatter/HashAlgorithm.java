@@ -0,0 +1,59 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Hash algorithms the cache can use to detect changed files. Detecting changes does not need a cryptographic digest,
+ * the non-cryptographic ones are much faster.
+ */
+public enum HashAlgorithm {
+
+    SHA512(1, Hashing.sha512()), SHA256(2, Hashing.sha256()), MURMUR3_128(3, Hashing.murmur3_128()),
+    FARMHASH64(4, Hashing.farmHashFingerprint64());
+
+    private final int id;
+
+    private final HashFunction function;
+
+    HashAlgorithm(int id, HashFunction function) {
+        this.id = id;
+        this.function = function;
+    }
+
+    /**
+     * Returns the identifier of the algorithm recorded in the cache, which stays the same across versions.
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Returns the length in bytes of the digests.
+     */
+    public int getDigestLength() {
+        return this.function.bits() / 8;
+    }
+
+    public byte[] hash(byte[] bytes) {
+        return this.function.hashBytes(bytes).asBytes();
+    }
+
+}
@@ -16,6 +16,11 @@
  */
 package net.revelc.code.formatter;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
  * @author marvin.froeder
  */
@@ -55,6 +60,10 @@ public enum LineEnding {
             }
         }
 
+        return mostOccurring(lfCount, crCount, crlfCount);
+    }
+
+    private static LineEnding mostOccurring(int lfCount, int crCount, int crlfCount) {
         if (lfCount > crCount && lfCount > crlfCount) {
             return LF;
         } else if (crlfCount > lfCount && crlfCount > crCount) {
@@ -65,4 +74,222 @@ public enum LineEnding {
         return UNKNOW;
     }
 
+    /**
+     * Returns the text with its most occurring line-ending characters replaced by these ones, or null if they already
+     * are these ones, if no line-ending occurs the most or if these ones are to be kept.
+     *
+     * The line endings are classified and replaced in a single pass, speculating that the first line ending found is
+     * the most occurring one: nothing is copied while it is the one of this line ending, and in the rare case the
+     * speculation is wrong, the text is replaced again. As with {@link String#replace(CharSequence, CharSequence)},
+     * replacing LF or CR also replaces the LF or the CR of a CRLF. A text without the character of the other line
+     * endings, a CR for LF or an LF for CR, is returned as is without being classified.
+     */
+    public String replaceLineEndings(String fileDataString) {
+        if (this.chars == null) {
+            return null;
+        }
+        char foreign = getForeignChar();
+        if (foreign != 0 && fileDataString.indexOf(foreign) == -1) {
+            return null;
+        }
+
+        int lfCount = 0;
+        int crCount = 0;
+        int crlfCount = 0;
+        LineEnding speculated = null;
+        StringBuilder sb = null;
+        int copied = 0;
+        for (int i = 0; i < fileDataString.length(); i++) {
+            char c = fileDataString.charAt(i);
+            LineEnding found;
+            if (c == '\r') {
+                if ((i + 1) < fileDataString.length() && fileDataString.charAt(i + 1) == '\n') {
+                    found = CRLF;
+                    crlfCount++;
+                } else {
+                    found = CR;
+                    crCount++;
+                }
+            } else if (c == '\n') {
+                found = LF;
+                lfCount++;
+            } else {
+                continue;
+            }
+            if (speculated == null) {
+                speculated = found;
+            }
+
+            if (!this.chars.equals(speculated.chars)) {
+                // the replaced characters of the line ending found, if any
+                int start = -1;
+                int end = -1;
+                if (speculated == found) {
+                    start = i;
+                    end = i + found.chars.length();
+                } else if (found == CRLF && speculated == LF) {
+                    start = i + 1;
+                    end = i + 2;
+                } else if (found == CRLF && speculated == CR) {
+                    start = i;
+                    end = i + 1;
+                }
+                if (start != -1) {
+                    if (sb == null) {
+                        sb = new StringBuilder(fileDataString.length() + fileDataString.length() / 16);
+                    }
+                    sb.append(fileDataString, copied, start).append(this.chars);
+                    copied = end;
+                }
+            }
+            if (found == CRLF) {
+                i++;
+            }
+        }
+
+        LineEnding current = mostOccurring(lfCount, crCount, crlfCount);
+        if (current == UNKNOW || this.chars.equals(current.chars)) {
+            return null;
+        }
+        if (current != speculated) {
+            return fileDataString.replace(current.chars, this.chars);
+        }
+        return sb.append(fileDataString, copied, fileDataString.length()).toString();
+    }
+
+    /**
+     * Returns the encoded text with its most occurring line-ending bytes replaced by the ones of this line ending, as
+     * {@link #replaceLineEndings(String)} does for the decoded text, or null if nothing is to be replaced. The text
+     * must be encoded with an {@link #isAsciiCompatible(Charset) ASCII compatible} charset, it is never decoded.
+     */
+    public ByteBuffer replaceLineEndings(ByteBuffer content) {
+        if (this.chars == null) {
+            return null;
+        }
+        char foreign = getForeignChar();
+        if (foreign != 0 && !contains(content, (byte) foreign)) {
+            return null;
+        }
+        return replaceLineEndings(content, null);
+    }
+
+    /**
+     * Returns the character only the other line endings hold, whose absence proves a text already uses this line
+     * ending if any, or 0 for CRLF which holds both.
+     */
+    private char getForeignChar() {
+        if ("\n".equals(this.chars)) {
+            return '\r';
+        } else if ("\r".equals(this.chars)) {
+            return '\n';
+        }
+        return 0;
+    }
+
+    private static boolean contains(ByteBuffer content, byte b) {
+        for (int i = content.position(); i < content.limit(); i++) {
+            if (content.get(i) == b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ByteBuffer replaceLineEndings(ByteBuffer content, LineEnding replaced) {
+        final byte[] bytes = this.chars.getBytes(StandardCharsets.US_ASCII);
+        int lfCount = 0;
+        int crCount = 0;
+        int crlfCount = 0;
+        LineEnding speculated = replaced;
+        ByteBuffer out = null;
+        int copied = content.position();
+        for (int i = content.position(); i < content.limit(); i++) {
+            byte b = content.get(i);
+            LineEnding found;
+            if (b == '\r') {
+                if ((i + 1) < content.limit() && content.get(i + 1) == '\n') {
+                    found = CRLF;
+                    crlfCount++;
+                } else {
+                    found = CR;
+                    crCount++;
+                }
+            } else if (b == '\n') {
+                found = LF;
+                lfCount++;
+            } else {
+                continue;
+            }
+            if (speculated == null) {
+                speculated = found;
+            }
+
+            if (!this.chars.equals(speculated.chars)) {
+                // the replaced bytes of the line ending found, if any
+                int start = -1;
+                int end = -1;
+                if (speculated == found) {
+                    start = i;
+                    end = i + found.chars.length();
+                } else if (found == CRLF && speculated == LF) {
+                    start = i + 1;
+                    end = i + 2;
+                } else if (found == CRLF && speculated == CR) {
+                    start = i;
+                    end = i + 1;
+                }
+                if (start != -1) {
+                    if (out == null) {
+                        out = ByteBuffer.allocate(content.remaining() + content.remaining() / 16 + bytes.length);
+                    }
+                    out = append(out, content, copied, start);
+                    out = ensureRemaining(out, bytes.length);
+                    out.put(bytes);
+                    copied = end;
+                }
+            }
+            if (found == CRLF) {
+                i++;
+            }
+        }
+
+        LineEnding current = mostOccurring(lfCount, crCount, crlfCount);
+        if (current == UNKNOW || this.chars.equals(current.chars)) {
+            return null;
+        }
+        if (current != speculated) {
+            return replaceLineEndings(content, current);
+        }
+        out = append(out, content, copied, content.limit());
+        out.flip();
+        return out;
+    }
+
+    private static ByteBuffer append(ByteBuffer out, ByteBuffer content, int from, int to) {
+        ByteBuffer region = content.duplicate();
+        region.limit(to).position(from);
+        ByteBuffer grown = ensureRemaining(out, region.remaining());
+        grown.put(region);
+        return grown;
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer out, int needed) {
+        if (out.remaining() >= needed) {
+            return out;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + needed));
+        out.flip();
+        grown.put(out);
+        return grown;
+    }
+
+    /**
+     * Returns true if the charset encodes CR and LF as their single ASCII bytes, which then never occur in the
+     * encoding of other characters, as with UTF-8, US-ASCII or the ISO-8859 charsets. The line endings of text
+     * encoded with such a charset can be replaced without decoding it.
+     */
+    public static boolean isAsciiCompatible(Charset charset) {
+        return charset.canEncode() && Arrays.equals("\r\n".getBytes(charset), new byte[] { '\r', '\n' });
+    }
+
 }
@@ -0,0 +1,357 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Cache shared by all the projects and checkouts of a machine, recording the digest each content formats to with
+ * each configuration. A content which formats to its own digest is already formatted.
+ *
+ * The cache file is a log of fixed width records appended by each build, keyed by a digest of the configuration
+ * fingerprint, the file type and the digest of the content. The digests are always {@link #ALGORITHM} ones, whatever
+ * the hash algorithm of the build: a collision in a cache shared by unrelated contents would replace a file with the
+ * output of another, which a digest of less than 128 bits cannot rule out. The file is locked while read or appended
+ * to, so that concurrent builds of several checkouts can share it. The builds of a reactor share one instance per
+ * cache file, as a file cannot be locked twice by the same JVM.
+ *
+ * Once appending would grow the file beyond {@link #MAX_SIZE}, the file is rewritten in place with the most recent
+ * half of its records, the older ones being evicted. The header records a generation incremented by each rewrite,
+ * which tells the other builds to read the records again from the start.
+ */
+final class SharedFormatterCache {
+
+    /** The hash algorithm of the keys and digests. */
+    static final HashAlgorithm ALGORITHM = HashAlgorithm.SHA256;
+
+    /** Maximum size of the cache file. */
+    static final long MAX_SIZE = 16L * 1024 * 1024;
+
+    private static final int MAGIC = 0x464d5453;
+
+    private static final int VERSION = 2;
+
+    /** The size of the part of the header identifying the format, followed by the generation. */
+    private static final int FORMAT_SIZE = 16;
+
+    private static final int HEADER_SIZE = FORMAT_SIZE + 8;
+
+    /** Number of records read or written at once. */
+    private static final int CHUNK_RECORDS = 4096;
+
+    private static final ConcurrentMap<File, SharedFormatterCache> INSTANCES = new ConcurrentHashMap<>();
+
+    private final File file;
+
+    private final int recordSize;
+
+    private final long maxSize;
+
+    private final Map<ByteBuffer, byte[]> entries = new ConcurrentHashMap<>();
+
+    /** The records not appended to the cache file yet. */
+    private final Map<ByteBuffer, byte[]> pending = new HashMap<>();
+
+    /** The size of the cache file already read. */
+    private long position;
+
+    /** The generation of the cache file already read. */
+    private long generation = -1;
+
+    private SharedFormatterCache(final File file, final long maxSize) {
+        this.file = file;
+        this.recordSize = 2 * ALGORITHM.getDigestLength();
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Open the shared cache of the directory, reading the records appended since it was last opened by this JVM.
+     *
+     * @param directory the directory of the shared cache
+     * @param log the log
+     * @return the cache
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static SharedFormatterCache open(final File directory, final Log log) throws IOException {
+        return open(directory, MAX_SIZE, log);
+    }
+
+    /**
+     * Open the shared cache of the directory, bounding the size of its file.
+     *
+     * @param directory the directory of the shared cache
+     * @param maxSize the maximum size of the cache file, only used by the first opening in this JVM
+     * @param log the log
+     * @return the cache
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static SharedFormatterCache open(final File directory, final long maxSize, final Log log) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create shared formatter cache directory " + directory);
+        }
+        final File file = new File(directory.getCanonicalFile(),
+                "formatter-cache-" + ALGORITHM.name().toLowerCase(Locale.ENGLISH) + ".bin");
+        SharedFormatterCache cache = INSTANCES.get(file);
+        if (cache == null) {
+            final SharedFormatterCache created = new SharedFormatterCache(file, maxSize);
+            cache = INSTANCES.putIfAbsent(file, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        cache.sync();
+        log.debug("Shared formatter cache " + file + " holds " + cache.entries.size() + " entries");
+        return cache;
+    }
+
+    /**
+     * Compute the key of a content.
+     *
+     * @param fingerprint the fingerprint of the configuration
+     * @param type the type of the file, as the formatter depends on it
+     * @param digest the {@link #ALGORITHM} digest of the content
+     * @return the key
+     */
+    byte[] keyOf(final byte[] fingerprint, final String type, final byte[] digest) {
+        final byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.allocate(12 + fingerprint.length + typeBytes.length + digest.length);
+        buffer.putInt(fingerprint.length).put(fingerprint);
+        buffer.putInt(typeBytes.length).put(typeBytes);
+        buffer.putInt(digest.length).put(digest);
+        return ALGORITHM.hash(buffer.array());
+    }
+
+    /**
+     * @return the digest the content of the key formats to, or null if unknown
+     */
+    byte[] get(final byte[] key) {
+        return this.entries.get(ByteBuffer.wrap(key));
+    }
+
+    /**
+     * Record the digest the content of the key formats to, appended to the cache file on the next {@link #sync()}.
+     *
+     * @param key the key of the content
+     * @param formattedDigest the {@link #ALGORITHM} digest of the formatted content
+     */
+    void put(final byte[] key, final byte[] formattedDigest) {
+        final ByteBuffer wrappedKey = ByteBuffer.wrap(key);
+        final byte[] previous = this.entries.put(wrappedKey, formattedDigest);
+        if (previous == null || !ByteBuffer.wrap(previous).equals(ByteBuffer.wrap(formattedDigest))) {
+            synchronized (this) {
+                this.pending.put(wrappedKey, formattedDigest);
+            }
+        }
+    }
+
+    /**
+     * Read the records appended by other builds and append the pending ones, holding an exclusive lock on the cache
+     * file. A record torn by an interrupted build is truncated away, and the file is rewritten with its most recent
+     * records when it would grow beyond its maximum size.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    synchronized void sync() throws IOException {
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE); FileLock lock = channel.lock()) {
+            long size = channel.size();
+            final long fileGeneration = size < HEADER_SIZE ? -1 : readGeneration(channel);
+            if (fileGeneration < 0) {
+                this.generation = 0;
+                writeFully(channel, newHeader(this.generation), 0);
+                channel.truncate(HEADER_SIZE);
+                size = HEADER_SIZE;
+                this.position = HEADER_SIZE;
+            } else if (fileGeneration != this.generation || this.position < HEADER_SIZE || this.position > size) {
+                // rewritten by another build since last read, the evicted records are forgotten too
+                this.generation = fileGeneration;
+                this.position = HEADER_SIZE;
+                this.entries.keySet().retainAll(this.pending.keySet());
+            }
+            final long end = size - (size - HEADER_SIZE) % this.recordSize;
+            if (end != size) {
+                channel.truncate(end);
+            }
+
+            readRecords(channel, this.position, end, new RecordHandler() {
+                @Override
+                public void record(final ByteBuffer key, final byte[] value) {
+                    if (!SharedFormatterCache.this.pending.containsKey(key)) {
+                        SharedFormatterCache.this.entries.put(key, value);
+                    }
+                }
+            });
+
+            if (end + (long) this.pending.size() * this.recordSize > this.maxSize) {
+                compact(channel, end);
+            } else {
+                this.position = writeRecords(channel, this.pending, end);
+            }
+            this.pending.clear();
+        } catch (final OverlappingFileLockException e) {
+            throw new IOException("Shared formatter cache " + this.file + " is already locked by this JVM", e);
+        }
+    }
+
+    /**
+     * Rewrite the cache file with the most recent records and the pending ones, filling at most half of the maximum
+     * size, and evict the other records.
+     */
+    private void compact(final FileChannel channel, final long end) throws IOException {
+        final long maxRecords = Math.max(1, this.maxSize / 2 / this.recordSize);
+        // the records appended last are the most recent, each key keeps the position of its last record
+        final Map<ByteBuffer, byte[]> kept = new LinkedHashMap<>();
+        final long from = Math.max(HEADER_SIZE, end - maxRecords * this.recordSize);
+        readRecords(channel, from, end, new RecordHandler() {
+            @Override
+            public void record(final ByteBuffer key, final byte[] value) {
+                kept.remove(key);
+                kept.put(key, value);
+            }
+        });
+        for (final Map.Entry<ByteBuffer, byte[]> entry : this.pending.entrySet()) {
+            kept.remove(entry.getKey());
+            kept.put(entry.getKey(), entry.getValue());
+        }
+        final Iterator<ByteBuffer> oldest = kept.keySet().iterator();
+        for (long evicted = kept.size() - maxRecords; evicted > 0; evicted--) {
+            oldest.next();
+            oldest.remove();
+        }
+
+        this.generation++;
+        writeFully(channel, newHeader(this.generation), 0);
+        channel.truncate(HEADER_SIZE);
+        this.position = writeRecords(channel, kept, HEADER_SIZE);
+        this.entries.keySet().retainAll(kept.keySet());
+    }
+
+    /**
+     * Read the records between two positions of the cache file, a chunk at a time.
+     */
+    private void readRecords(final FileChannel channel, final long from, final long to, final RecordHandler handler)
+            throws IOException {
+        final int digestLength = ALGORITHM.getDigestLength();
+        final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_RECORDS * this.recordSize);
+        for (long offset = from; offset < to; offset += chunk.limit()) {
+            chunk.clear();
+            chunk.limit((int) Math.min(chunk.capacity(), to - offset));
+            while (chunk.hasRemaining() && channel.read(chunk, offset + chunk.position()) >= 0) {
+                // read the whole chunk
+            }
+            chunk.flip();
+            while (chunk.remaining() >= this.recordSize) {
+                final byte[] key = new byte[digestLength];
+                final byte[] value = new byte[digestLength];
+                chunk.get(key).get(value);
+                handler.record(ByteBuffer.wrap(key), value);
+            }
+            if (chunk.limit() < chunk.capacity() && offset + chunk.limit() < to) {
+                // the file was truncated by another process ignoring the lock
+                return;
+            }
+        }
+    }
+
+    /**
+     * Write records to the cache file, a chunk at a time.
+     *
+     * @return the position following the records
+     */
+    private long writeRecords(final FileChannel channel, final Map<ByteBuffer, byte[]> records, final long from)
+            throws IOException {
+        final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_RECORDS * this.recordSize);
+        long offset = from;
+        for (final Map.Entry<ByteBuffer, byte[]> entry : records.entrySet()) {
+            if (!chunk.hasRemaining()) {
+                offset = flush(channel, chunk, offset);
+            }
+            chunk.put(entry.getKey().duplicate()).put(entry.getValue());
+        }
+        return flush(channel, chunk, offset);
+    }
+
+    private static long flush(final FileChannel channel, final ByteBuffer chunk, final long offset)
+            throws IOException {
+        chunk.flip();
+        final long next = offset + chunk.remaining();
+        writeFully(channel, chunk, offset);
+        chunk.clear();
+        return next;
+    }
+
+    private ByteBuffer newHeader(final long fileGeneration) {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(ALGORITHM.getId()).putInt(ALGORITHM.getDigestLength());
+        header.putLong(fileGeneration);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * @return the generation of the cache file, or -1 if the header is not the one of this format
+     */
+    private long readGeneration(final FileChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // read the whole header
+        }
+        header.flip();
+        final ByteBuffer format = header.duplicate();
+        format.limit(FORMAT_SIZE);
+        final ByteBuffer expected = newHeader(0);
+        expected.limit(FORMAT_SIZE);
+        if (header.remaining() < HEADER_SIZE || !format.equals(expected)) {
+            return -1;
+        }
+        return header.getLong(FORMAT_SIZE);
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+            throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    /**
+     * Receives the records read from the cache file.
+     */
+    private interface RecordHandler {
+
+        void record(ByteBuffer key, byte[] value);
+    }
+
+}
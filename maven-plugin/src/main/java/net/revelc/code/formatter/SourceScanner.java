@@ -0,0 +1,424 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * Finds the files of source directories matching Ant style include and exclude patterns, as {@link DirectoryScanner}
+ * does, ignoring case, with the default excludes and without following symbolic links to directories. The patterns
+ * are compiled once into regular expressions, and the directories no include can match below or excluded with all
+ * their content are not descended into.
+ */
+final class SourceScanner {
+
+    private static final String REGEX_PREFIX = "%regex[";
+
+    private static final String ANT_PREFIX = "%ant[";
+
+    private final List<Pattern> includes;
+
+    private final List<Pattern> excludes;
+
+    /** The excludes matching the directories whose whole content is excluded. */
+    private final List<Pattern> excludedDirectories;
+
+    private final AtomicInteger duplicates = new AtomicInteger();
+
+    private Set<Path> unchangedDirectories = Collections.emptySet();
+
+    /**
+     * Compile the patterns.
+     *
+     * @param includes the include patterns
+     * @param excludes the exclude patterns, or null, the default excludes are added
+     */
+    SourceScanner(final String[] includes, final String[] excludes) {
+        this.includes = new ArrayList<>();
+        for (final String include : includes) {
+            this.includes.add(compile(include));
+        }
+        final List<String> allExcludes = new ArrayList<>(Arrays.asList(DirectoryScanner.DEFAULTEXCLUDES));
+        if (excludes != null) {
+            allExcludes.addAll(Arrays.asList(excludes));
+        }
+        this.excludes = new ArrayList<>();
+        this.excludedDirectories = new ArrayList<>();
+        for (final String exclude : allExcludes) {
+            this.excludes.add(compile(exclude));
+            final String normalized = normalize(exclude);
+            if (!normalized.startsWith(REGEX_PREFIX) && normalized.endsWith("/**")) {
+                this.excludedDirectories.add(compile(normalized.substring(0, normalized.length() - 3)));
+            }
+        }
+    }
+
+    /**
+     * Scan the source directories, handing each file to the visitor as soon as it is found. Directories that do not
+     * overlap are scanned concurrently, the visitor must then be thread safe. Overlapping directories are scanned one
+     * after the other, in order. A file found again, in a later directory or through a link, is skipped.
+     *
+     * @param roots the real paths of the source directories
+     * @param threads the maximum number of directories scanned at once
+     * @param visitor the visitor of the files found
+     * @return the number of files handed to the visitor
+     * @throws Exception Signals that the visitor failed, or that an I/O exception has occurred.
+     */
+    int scan(final List<Path> roots, final int threads, final Visitor visitor) throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        final Visitor counting = new Visitor() {
+            @Override
+            public void visitFile(final Path file, final BasicFileAttributes attrs) throws Exception {
+                count.incrementAndGet();
+                visitor.visitFile(file, attrs);
+            }
+        };
+
+        if (overlap(roots) || roots.size() < 2 || threads < 2) {
+            final Set<Object> found = new HashSet<>();
+            for (final Path root : roots) {
+                walk(root, found, counting);
+            }
+        } else {
+            walkConcurrently(roots, threads, counting);
+        }
+        return count.get();
+    }
+
+    /**
+     * Scan the source directories one after the other, telling the visitor when each directory is entered and left.
+     *
+     * @param roots the real paths of the source directories
+     * @param visitor the visitor of the directories and files found
+     * @throws Exception Signals that the visitor failed, or that an I/O exception has occurred.
+     */
+    void scan(final List<Path> roots, final DirectoryVisitor visitor) throws Exception {
+        for (final Path root : roots) {
+            walk(root, null, visitor);
+        }
+    }
+
+    /**
+     * @return the number of files found more than once
+     */
+    int getDuplicates() {
+        return this.duplicates.get();
+    }
+
+    /**
+     * Do not scan the given directories, known to be unchanged since their files were formatted.
+     *
+     * @param directories the real paths of the directories
+     */
+    void setUnchangedDirectories(final Set<Path> directories) {
+        this.unchangedDirectories = directories;
+    }
+
+    /**
+     * Scan a source directory. The files found are resolved against the given directory without any further system
+     * call, so they are real paths when the directory is one.
+     *
+     * @param root the source directory
+     * @return the files found
+     * @throws Exception Signals that an I/O exception has occurred.
+     */
+    List<Path> scan(final Path root) throws Exception {
+        final List<Path> files = new ArrayList<>();
+        walk(root, null, new Visitor() {
+            @Override
+            public void visitFile(final Path file, final BasicFileAttributes attrs) {
+                files.add(file);
+            }
+        });
+        return files;
+    }
+
+    private static boolean overlap(final List<Path> roots) {
+        for (int i = 0; i < roots.size(); i++) {
+            for (int j = 0; j < roots.size(); j++) {
+                if (i != j && roots.get(i).startsWith(roots.get(j))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void walkConcurrently(final List<Path> roots, final int threads, final Visitor visitor)
+            throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(roots.size(), threads));
+        // links can still lead from one directory to the files of another
+        final Set<Object> found = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+        try {
+            final List<Future<Void>> walks = new ArrayList<>();
+            for (final Path root : roots) {
+                walks.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        walk(root, found, visitor);
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> walk : walks) {
+                walk.get();
+            }
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Scan a source directory.
+     *
+     * @param root the source directory
+     * @param found the file keys of the files found so far, the device and inode on most file systems, or their path
+     *            when the file system has no file keys, null if the files cannot be found twice
+     * @param visitor the visitor of the files found
+     * @throws Exception Signals that the visitor failed, or that an I/O exception has occurred.
+     */
+    private void walk(final Path root, final Set<Object> found, final Visitor visitor) throws Exception {
+        final Exception[] failure = new Exception[1];
+        final DirectoryVisitor directoryVisitor = visitor instanceof DirectoryVisitor ? (DirectoryVisitor) visitor
+                : null;
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+            /** The paths relative to the root of the directories being visited, separated by slashes. */
+            private final Deque<String> directories = new ArrayDeque<>();
+
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                final String path = this.directories.isEmpty() && dir.equals(root) ? "" : relativize(dir);
+                if (!path.isEmpty() && !isScanned(path) || SourceScanner.this.unchangedDirectories.contains(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                this.directories.push(path);
+                if (directoryVisitor != null) {
+                    directoryVisitor.preVisitDirectory(dir, attrs);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                BasicFileAttributes fileAttrs = attrs;
+                if (attrs.isSymbolicLink()) {
+                    // links to files are included, links to directories are not followed
+                    try {
+                        fileAttrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    } catch (final IOException e) {
+                        // broken link
+                        return FileVisitResult.CONTINUE;
+                    }
+                }
+                if (!fileAttrs.isRegularFile() || !isIncluded(relativize(file))) {
+                    return FileVisitResult.CONTINUE;
+                }
+                if (found != null && !found.add(fileAttrs.fileKey() != null ? fileAttrs.fileKey() : file)) {
+                    SourceScanner.this.duplicates.incrementAndGet();
+                    return FileVisitResult.CONTINUE;
+                }
+                try {
+                    visitor.visitFile(file, fileAttrs);
+                } catch (final Exception e) {
+                    failure[0] = e;
+                    return FileVisitResult.TERMINATE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                // unreadable directories are skipped, as the directory scanner does
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException e) {
+                this.directories.pop();
+                if (directoryVisitor != null) {
+                    directoryVisitor.postVisitDirectory(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            private String relativize(final Path path) {
+                final String parent = this.directories.peek();
+                final String name = path.getFileName().toString();
+                return parent.isEmpty() ? name : parent + '/' + name;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * @param path the path of a file relative to the source directory, separated by slashes
+     * @return true if the file is included and not excluded
+     */
+    boolean isIncluded(final String path) {
+        return matchesAny(this.includes, path) && !matchesAny(this.excludes, path);
+    }
+
+    /**
+     * @param path the path of a directory relative to the source directory, separated by slashes
+     * @return true if files below the directory can be included
+     */
+    private boolean isScanned(final String path) {
+        if (matchesAny(this.excludedDirectories, path)) {
+            return false;
+        }
+        final String prefix = path + '/';
+        for (final Pattern include : this.includes) {
+            final Matcher matcher = include.matcher(prefix);
+            // hitting the end of the input means longer paths could match
+            if (matcher.matches() || matcher.hitEnd()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAny(final List<Pattern> patterns, final String path) {
+        for (final Pattern pattern : patterns) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Normalize the separators of a pattern to slashes, a pattern ending with a separator matching all the content
+     * of the directory.
+     */
+    private static String normalize(final String pattern) {
+        String normalized = pattern.trim();
+        if (normalized.startsWith(REGEX_PREFIX) && normalized.endsWith("]")) {
+            return normalized;
+        }
+        if (normalized.startsWith(ANT_PREFIX) && normalized.endsWith("]")) {
+            normalized = normalized.substring(ANT_PREFIX.length(), normalized.length() - 1);
+        }
+        normalized = normalized.replace('\\', '/');
+        if (normalized.endsWith("/")) {
+            normalized += "**";
+        }
+        return normalized;
+    }
+
+    /**
+     * Compile an Ant style pattern into a regular expression matching the paths separated by slashes: <code>**</code>
+     * matches any number of directories, <code>*</code> any characters and <code>?</code> a single character of a
+     * file or directory name. Patterns enclosed in <code>%regex[]</code> are regular expressions already.
+     */
+    static Pattern compile(final String pattern) {
+        final String normalized = normalize(pattern);
+        if (normalized.startsWith(REGEX_PREFIX)) {
+            return Pattern.compile(normalized.substring(REGEX_PREFIX.length(), normalized.length() - 1),
+                    Pattern.CASE_INSENSITIVE);
+        }
+
+        final String[] segments = normalized.split("/");
+        final StringBuilder regex = new StringBuilder();
+        boolean separated = true;
+        for (int i = 0; i < segments.length; i++) {
+            final String segment = segments[i];
+            if ("**".equals(segment)) {
+                if (i == segments.length - 1) {
+                    regex.append(separated ? ".*" : "(?:/.*)?");
+                } else {
+                    regex.append(separated ? "(?:.*/)?" : "/(?:.*/)?");
+                    separated = true;
+                }
+                continue;
+            }
+            if (!separated) {
+                regex.append('/');
+            }
+            for (int j = 0; j < segment.length(); j++) {
+                final char c = segment.charAt(j);
+                if (c == '*') {
+                    regex.append("[^/]*");
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else {
+                    if ("\\^$.|+()[]{}".indexOf(c) != -1) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+                }
+            }
+            separated = false;
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Receives the files found by a scan.
+     */
+    interface Visitor {
+
+        /**
+         * @param file the file
+         * @param attrs the attributes of the file, of the file linked to for a link
+         */
+        void visitFile(Path file, BasicFileAttributes attrs) throws Exception;
+    }
+
+    /**
+     * Receives the files found by a scan along with the directories they are found in.
+     */
+    interface DirectoryVisitor extends Visitor {
+
+        void preVisitDirectory(Path dir, BasicFileAttributes attrs);
+
+        void postVisitDirectory(Path dir);
+    }
+
+}
@@ -0,0 +1,381 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * A hash tree of the source directories: the hash of a directory covers its modification time, the name, size and
+ * modification time of its included files and the hashes of its scanned subdirectories. Computed before a run and
+ * updated with the files the run wrote, it is recorded once the run left every file formatted: a directory with the
+ * same hash still only holds formatted files, and the whole run can be skipped when the hashes of all the source
+ * directories match. A file changed by another process during the run keeps its state from before the run, so the
+ * next run still notices the change.
+ *
+ * The modification time of a directory only changes when entries are added, removed or renamed, not when a file is
+ * modified, so each file is still stat'ed. No source file is read though, and the settings the fingerprint is recorded
+ * with only cover the raw configuration files, so the formatters need not be loaded to find the run can be skipped.
+ */
+final class SourceTreeFingerprint {
+
+    private static final int MAGIC = 0x464d5446;
+
+    private static final int VERSION = 1;
+
+    /** File system timestamp granularity within which a file could change without its modification time changing. */
+    private static final long RACY_TIMESTAMP_MILLIS = 2000;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry e1, final Entry e2) {
+            return e1.name.compareTo(e2.name);
+        }
+    };
+
+    private HashCode root;
+
+    private final Map<Path, HashCode> directories;
+
+    private final int fileCount;
+
+    private final boolean racy;
+
+    private final byte[] settings;
+
+    /** The scanned tree, null for a fingerprint read from its file. */
+    private final TreeHasher tree;
+
+    /** The latest modification time of the files written since the fingerprint was computed. */
+    private long lastWritten = Long.MIN_VALUE;
+
+    private SourceTreeFingerprint(final HashCode root, final Map<Path, HashCode> directories, final int fileCount,
+            final boolean racy, final byte[] settings, final TreeHasher tree) {
+        this.root = root;
+        this.directories = directories;
+        this.fileCount = fileCount;
+        this.racy = racy;
+        this.settings = settings;
+        this.tree = tree;
+    }
+
+    /**
+     * Compute the fingerprint of the source directories.
+     *
+     * @param scanner the scanner of the source files
+     * @param roots the real paths of the source directories
+     * @param startTime the time the run started, a file or directory modified within the timestamp granularity before
+     *            makes the fingerprint racy
+     * @return the fingerprint
+     * @throws Exception Signals that an I/O exception has occurred.
+     */
+    static SourceTreeFingerprint compute(final SourceScanner scanner, final List<Path> roots, final long startTime)
+            throws Exception {
+        final TreeHasher hasher = new TreeHasher(startTime - RACY_TIMESTAMP_MILLIS);
+        scanner.scan(roots, hasher);
+        return new SourceTreeFingerprint(hash(0, hasher.roots), hasher.directories, hasher.fileCount, hasher.racy,
+                null, hasher);
+    }
+
+    /**
+     * Read the fingerprint recorded by a previous run.
+     *
+     * @param file the file
+     * @param log the log
+     * @return the fingerprint, or null if none is recorded
+     */
+    static SourceTreeFingerprint read(final File file, final Log log) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.debug("Ignoring source tree fingerprint of another version");
+                return null;
+            }
+            final byte[] settings = new byte[in.readInt()];
+            in.readFully(settings);
+            final HashCode root = readHash(in);
+            final int fileCount = in.readInt();
+            final int size = in.readInt();
+            final Map<Path, HashCode> directories = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                directories.put(Paths.get(in.readUTF()), readHash(in));
+            }
+            return new SourceTreeFingerprint(root, directories, fileCount, false, settings, null);
+        } catch (final NoSuchFileException e) {
+            return null;
+        } catch (final IOException e) {
+            log.debug("Cannot read source tree fingerprint", e);
+            return null;
+        }
+    }
+
+    /**
+     * Record the fingerprint for the next run, replacing the file atomically.
+     *
+     * @param file the file
+     * @param settings the digest of the settings the files were formatted with
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    void write(final File file, final byte[] settings) throws IOException {
+        final Path temp = Paths.get(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(settings.length);
+            out.write(settings);
+            out.write(this.root.asBytes());
+            out.writeInt(this.fileCount);
+            out.writeInt(this.directories.size());
+            for (final Map.Entry<Path, HashCode> directory : this.directories.entrySet()) {
+                out.writeUTF(directory.getKey().toString());
+                out.write(directory.getValue().asBytes());
+            }
+        }
+        Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Record a source file written by the run with the size and modification time it was written with, which a later
+     * change by another process then differs from. A file unknown to the fingerprint is ignored.
+     *
+     * @param file the file
+     * @param size the size of the file
+     * @param lastModified the modification time of the file
+     */
+    synchronized void update(final Path file, final long size, final long lastModified) {
+        final Directory directory = this.tree == null ? null : this.tree.tree.get(file.getParent());
+        final Entry entry = directory == null ? null : directory.find(file.getFileName().toString());
+        if (entry == null || entry.directory != null) {
+            return;
+        }
+        entry.size = size;
+        entry.lastModified = lastModified;
+        this.lastWritten = Math.max(this.lastWritten, lastModified);
+        for (Directory changed = directory; changed != null; changed = changed.parent) {
+            changed.hash = hash(changed.lastModified, changed.entries);
+            this.directories.put(changed.path, changed.hash);
+        }
+        this.root = hash(0, this.tree.roots);
+    }
+
+    /**
+     * @param previous the fingerprint recorded by the previous run, or null
+     * @param settings the digest of the current settings
+     * @return true if no source file changed since the previous run, nor the settings
+     */
+    boolean matches(final SourceTreeFingerprint previous, final byte[] settings) {
+        return previous != null && Arrays.equals(previous.settings, settings) && previous.root.equals(this.root);
+    }
+
+    /**
+     * @param previous the fingerprint recorded by the previous run, or null
+     * @param settings the digest of the current settings
+     * @return the directories whose files did not change since the previous run
+     */
+    Set<Path> getUnchangedDirectories(final SourceTreeFingerprint previous, final byte[] settings) {
+        if (previous == null || !Arrays.equals(previous.settings, settings)) {
+            return Collections.emptySet();
+        }
+        final Set<Path> unchanged = new HashSet<>();
+        for (final Map.Entry<Path, HashCode> directory : this.directories.entrySet()) {
+            if (directory.getValue().equals(previous.directories.get(directory.getKey()))) {
+                unchanged.add(directory.getKey());
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * @return the number of source files
+     */
+    int getFileCount() {
+        return this.fileCount;
+    }
+
+    /**
+     * @return true if a source file or directory was modified too recently for a later modification to be noticed:
+     *         within the timestamp granularity before the run started, or of the current time for the files written
+     */
+    synchronized boolean isRacy() {
+        return this.racy || this.lastWritten > System.currentTimeMillis() - RACY_TIMESTAMP_MILLIS;
+    }
+
+    private static HashCode readHash(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[HASH_FUNCTION.bits() / 8];
+        in.readFully(bytes);
+        return HashCode.fromBytes(bytes);
+    }
+
+    /**
+     * Hashes each directory once all its entries were visited.
+     */
+    private static final class TreeHasher implements SourceScanner.DirectoryVisitor {
+
+        private final long racyAfter;
+
+        private final Deque<Directory> visited = new ArrayDeque<>();
+
+        private final List<Entry> roots = new ArrayList<>();
+
+        private final Map<Path, HashCode> directories = new HashMap<>();
+
+        private final Map<Path, Directory> tree = new HashMap<>();
+
+        private int fileCount;
+
+        private boolean racy;
+
+        TreeHasher(final long racyAfter) {
+            this.racyAfter = racyAfter;
+        }
+
+        @Override
+        public void preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+            final long lastModified = attrs.lastModifiedTime().toMillis();
+            this.racy |= lastModified > this.racyAfter;
+            this.visited.push(new Directory(dir, this.visited.peek(), lastModified));
+        }
+
+        @Override
+        public void visitFile(final Path file, final BasicFileAttributes attrs) {
+            final long lastModified = attrs.lastModifiedTime().toMillis();
+            this.racy |= lastModified > this.racyAfter;
+            this.fileCount++;
+            this.visited.peek().entries
+                    .add(new Entry(file.getFileName().toString(), attrs.size(), lastModified, null));
+        }
+
+        @Override
+        public void postVisitDirectory(final Path dir) {
+            final Directory directory = this.visited.pop();
+            Collections.sort(directory.entries, ENTRY_ORDER);
+            directory.hash = hash(directory.lastModified, directory.entries);
+            this.directories.put(dir, directory.hash);
+            this.tree.put(dir, directory);
+            final Directory parent = this.visited.peek();
+            if (parent == null) {
+                this.roots.add(new Entry(dir.toString(), 0, directory.lastModified, directory));
+                Collections.sort(this.roots, ENTRY_ORDER);
+            } else {
+                parent.entries.add(new Entry(dir.getFileName().toString(), 0, directory.lastModified, directory));
+            }
+        }
+    }
+
+    /**
+     * Hash a directory, or the source directories, from its entries in name order.
+     */
+    private static HashCode hash(final long lastModified, final List<Entry> entries) {
+        final Hasher hasher = HASH_FUNCTION.newHasher();
+        hasher.putLong(lastModified);
+        hasher.putInt(entries.size());
+        for (final Entry entry : entries) {
+            hasher.putInt(entry.name.length()).putString(entry.name, StandardCharsets.UTF_8);
+            hasher.putLong(entry.size).putLong(entry.lastModified);
+            hasher.putBoolean(entry.directory != null);
+            if (entry.directory != null) {
+                hasher.putBytes(entry.directory.hash.asBytes());
+            }
+        }
+        return hasher.hash();
+    }
+
+    private static final class Directory {
+
+        private final Path path;
+
+        private final Directory parent;
+
+        private final long lastModified;
+
+        private final List<Entry> entries = new ArrayList<>();
+
+        private HashCode hash;
+
+        Directory(final Path path, final Directory parent, final long lastModified) {
+            this.path = path;
+            this.parent = parent;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return the entry of the name, or null if none
+         */
+        Entry find(final String name) {
+            for (final Entry entry : this.entries) {
+                if (entry.name.equals(name)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A file, or a directory along with its hashed entries.
+     */
+    private static final class Entry {
+
+        private final String name;
+
+        private long size;
+
+        private long lastModified;
+
+        private final Directory directory;
+
+        Entry(final String name, final long size, final long lastModified, final Directory directory) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.directory = directory;
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.text.edits.DeleteEdit;
+import org.eclipse.text.edits.InsertEdit;
+import org.eclipse.text.edits.MalformedTreeException;
+import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.ReplaceEdit;
+import org.eclipse.text.edits.TextEdit;
+
+/**
+ * Application of the text edits returned by the code formatters.
+ *
+ * The edits of the formatters are replace edits under a multi text edit, they are applied in offset order into a
+ * single builder sized for the result, instead of going through a {@link Document} whose line tracking and position
+ * updating are of no use here. Other edit trees are still applied to a {@link Document}.
+ *
+ * Formatting already formatted code gives edits replacing regions with the same text, in which case the code itself is
+ * returned without building anything, so that comparing it to the formatted code is immediate.
+ */
+public final class TextEdits {
+
+    private TextEdits() {
+    }
+
+    /**
+     * Apply the edit to the code.
+     *
+     * @param code the code
+     * @param edit the edit
+     * @return the edited code, the code itself if the edit leaves it unchanged
+     * @throws MalformedTreeException the malformed tree exception
+     * @throws BadLocationException the bad location exception
+     */
+    public static String apply(final String code, final TextEdit edit)
+            throws MalformedTreeException, BadLocationException {
+        final List<TextEdit> edits = flatten(code, edit);
+        if (edits == null) {
+            final IDocument doc = new Document(code);
+            edit.apply(doc);
+            return doc.get();
+        }
+        if (isNoOp(code, edits)) {
+            return code;
+        }
+
+        int length = code.length();
+        for (final TextEdit child : edits) {
+            length += textOf(child).length() - child.getLength();
+        }
+        final StringBuilder sb = new StringBuilder(length);
+        int position = 0;
+        for (final TextEdit child : edits) {
+            sb.append(code, position, child.getOffset()).append(textOf(child));
+            position = child.getExclusiveEnd();
+        }
+        sb.append(code, position, code.length());
+        return sb.toString();
+    }
+
+    /**
+     * Flatten the edit into its replace, insert and delete edits, in offset order.
+     *
+     * @return the edits, or null if the edit tree holds other edits, nested or overlapping ones
+     */
+    static List<TextEdit> flatten(final String code, final TextEdit edit) {
+        final List<TextEdit> edits = new ArrayList<>(edit.getChildrenSize());
+        return flatten(code, edit, edits) ? edits : null;
+    }
+
+    private static boolean flatten(final String code, final TextEdit edit, final List<TextEdit> edits) {
+        if (edit instanceof MultiTextEdit) {
+            for (final TextEdit child : edit.getChildren()) {
+                if (!flatten(code, child, edits)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (!(edit instanceof ReplaceEdit || edit instanceof InsertEdit || edit instanceof DeleteEdit)
+                || edit.hasChildren()) {
+            return false;
+        }
+        final int previousEnd = edits.isEmpty() ? 0 : edits.get(edits.size() - 1).getExclusiveEnd();
+        if (edit.getOffset() < previousEnd || edit.getExclusiveEnd() > code.length()) {
+            return false;
+        }
+        edits.add(edit);
+        return true;
+    }
+
+    private static boolean isNoOp(final String code, final List<TextEdit> edits) {
+        for (final TextEdit edit : edits) {
+            final String text = textOf(edit);
+            if (text.length() != edit.getLength() || !code.regionMatches(edit.getOffset(), text, 0, text.length())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String textOf(final TextEdit edit) {
+        if (edit instanceof ReplaceEdit) {
+            return ((ReplaceEdit) edit).getText();
+        }
+        if (edit instanceof InsertEdit) {
+            return ((InsertEdit) edit).getText();
+        }
+        return "";
+    }
+
+}
@@ -17,10 +17,6 @@
 package net.revelc.code.formatter;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.Properties;
-
-import org.eclipse.jface.text.BadLocationException;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -54,14 +50,16 @@ public class ValidateMojo extends FormatterMojo {
     }
 
     @Override
-    protected void doFormatFile(File file, ResultCollector rc, Properties hashCache, String basedirPath, boolean dryRun)
-            throws IOException, MojoFailureException, BadLocationException, MojoExecutionException {
-        super.doFormatFile(file, rc, hashCache, basedirPath, true);
+    protected boolean isDryRun() {
+        return true;
+    }
 
-        if (rc.successCount != 0) {
+    @Override
+    protected void checkResult(File file, Result result) throws MojoFailureException, MojoExecutionException {
+        if (result == Result.SUCCESS) {
             throw new MojoFailureException("File '" + file + "' format doesn't match!");
         }
-        if (rc.failCount != 0) {
+        if (result == Result.FAIL) {
             throw new MojoExecutionException("Error formating '" + file + "' ");
         }
     }
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * Tells which files of the work tree of a local git repository differ from a revision: the files whose content
+ * differs from the one they have in the revision, and the files not in the revision, untracked files included. The
+ * index tells the object id of the files unchanged since they were staged, the other files are hashed. Files whose
+ * checked out content differs from the one committed, e.g. converted line endings, count as changed.
+ *
+ * Thread safe once created.
+ */
+public final class ChangedFiles {
+
+    private final Path workTree;
+
+    private final Map<String, ObjectId> revisionFiles;
+
+    private final GitIndex index;
+
+    private ChangedFiles(final Path workTree, final Map<String, ObjectId> revisionFiles, final GitIndex index) {
+        this.workTree = workTree;
+        this.revisionFiles = revisionFiles;
+        this.index = index;
+    }
+
+    /**
+     * Read the files of a revision from the repository holding a directory.
+     *
+     * @param directory the directory
+     * @param revision the revision, a full object id or a reference name, e.g. <code>origin/master</code>
+     * @return the changed files, or null if the directory is not in a git repository
+     * @throws IOException Signals that an I/O exception has occurred, or that the revision cannot be read from the
+     *             repository.
+     */
+    public static ChangedFiles since(final File directory, final String revision) throws IOException {
+        final GitRepository repository = GitRepository.find(directory.toPath().toRealPath());
+        if (repository == null) {
+            return null;
+        }
+        try (GitRepository repo = repository) {
+            final ObjectId id = repo.resolve(revision);
+            if (id == null) {
+                throw new IOException("Unknown revision " + revision);
+            }
+            return new ChangedFiles(repo.getWorkTree().toRealPath(), repo.readTree(id),
+                    GitIndex.read(repo.getIndexFile()));
+        }
+    }
+
+    /**
+     * @param file the real path of the file
+     * @param attrs the attributes of the file
+     * @return true if the file differs from the revision
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public boolean isChanged(final Path file, final BasicFileAttributes attrs) throws IOException {
+        if (!file.startsWith(this.workTree)) {
+            return true;
+        }
+        final String path = this.workTree.relativize(file).toString().replace(File.separatorChar, '/');
+        final ObjectId revisionId = this.revisionFiles.get(path);
+        if (revisionId == null) {
+            return true;
+        }
+        final GitIndex.Entry entry = this.index.get(path);
+        if (entry != null && this.index.isUpToDate(entry, attrs)) {
+            return !revisionId.equals(entry.id);
+        }
+        return !revisionId.equals(hashBlob(file, attrs.size()));
+    }
+
+    /**
+     * Compute the object id git gives to the content of a file.
+     */
+    private static ObjectId hashBlob(final Path file, final long size) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        digest.update(("blob " + size + '\0').getBytes(StandardCharsets.US_ASCII));
+        long hashed = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            final byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                digest.update(buffer, 0, read);
+                hashed += read;
+            }
+        }
+        if (hashed != size) {
+            // modified while hashed
+            return null;
+        }
+        return ObjectId.fromBytes(digest.digest(), 0);
+    }
+
+}
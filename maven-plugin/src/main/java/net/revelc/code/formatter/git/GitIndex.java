@@ -0,0 +1,188 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter.git;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The index of a git repository, recording the object id of each staged file along with the size and modification
+ * time the file had when git last hashed it. Versions 2 to 4 are read.
+ */
+final class GitIndex {
+
+    private static final int SIGNATURE = 0x44495243;
+
+    /** Size of an entry up to its flags. */
+    private static final int ENTRY_HEADER_SIZE = 62;
+
+    private static final int EXTENDED_FLAG = 0x4000;
+
+    private static final int STAGE_MASK = 0x3000;
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, Entry> entries;
+
+    private final long modified;
+
+    private GitIndex(final Map<String, Entry> entries, final long modified) {
+        this.entries = entries;
+        this.modified = modified;
+    }
+
+    /**
+     * Read the index.
+     *
+     * @param file the index file
+     * @return the index, empty if the file does not exist
+     * @throws IOException Signals that an I/O exception has occurred, or that the index version is not supported.
+     */
+    static GitIndex read(final Path file) throws IOException {
+        final byte[] data;
+        final long modified;
+        try {
+            modified = Files.getLastModifiedTime(file).to(TimeUnit.NANOSECONDS);
+            data = Files.readAllBytes(file);
+        } catch (final NoSuchFileException e) {
+            return new GitIndex(new HashMap<String, Entry>(), 0);
+        }
+        final int version = data.length < 12 ? -1 : readInt(data, 4);
+        if (version < 2 || version > 4 || readInt(data, 0) != SIGNATURE) {
+            throw new IOException("Unsupported git index " + file);
+        }
+
+        final int count = readInt(data, 8);
+        final Map<String, Entry> entries = new HashMap<>(count * 2);
+        int position = 12;
+        byte[] previousPath = new byte[0];
+        for (int i = 0; i < count; i++) {
+            final long seconds = readInt(data, position + 8) & 0xffffffffL;
+            final int nanos = readInt(data, position + 12);
+            final int size = readInt(data, position + 36);
+            final ObjectId id = ObjectId.fromBytes(data, position + 40);
+            final int flags = ((data[position + 60] & 0xff) << 8) | (data[position + 61] & 0xff);
+            int pathStart = position + ENTRY_HEADER_SIZE;
+            if ((flags & EXTENDED_FLAG) != 0 && version >= 3) {
+                pathStart += 2;
+            }
+
+            final byte[] path;
+            if (version == 4) {
+                // the path replaces the end of the previous path by a NUL terminated suffix
+                int c = data[pathStart++] & 0xff;
+                int removed = c & 0x7f;
+                while ((c & 0x80) != 0) {
+                    c = data[pathStart++] & 0xff;
+                    removed = ((removed + 1) << 7) | (c & 0x7f);
+                }
+                final int end = indexOfNul(data, pathStart);
+                final int kept = previousPath.length - removed;
+                path = new byte[kept + end - pathStart];
+                System.arraycopy(previousPath, 0, path, 0, kept);
+                System.arraycopy(data, pathStart, path, kept, end - pathStart);
+                position = end + 1;
+            } else {
+                final int end = indexOfNul(data, pathStart);
+                path = new byte[end - pathStart];
+                System.arraycopy(data, pathStart, path, 0, path.length);
+                // entries are padded with NUL bytes to a multiple of eight bytes
+                position += (end - position + 8) & ~7;
+            }
+            previousPath = path;
+
+            // conflicting files only have entries of other stages, as untracked files they count as changed
+            if ((flags & STAGE_MASK) == 0) {
+                entries.put(new String(path, StandardCharsets.UTF_8), new Entry(id, seconds, nanos, size));
+            }
+        }
+        return new GitIndex(entries, modified);
+    }
+
+    /**
+     * @param path the path of the file relative to the work tree, separated by slashes
+     * @return the entry of the file, or null if the file is not tracked
+     */
+    Entry get(final String path) {
+        return this.entries.get(path);
+    }
+
+    /**
+     * Check if a file still has the size and modification time recorded in its entry, meaning the object id of the
+     * entry is the one of its content, as git does. A file modified after the index was written is racily clean: it
+     * could have changed again within the timestamp granularity, so it is never up to date.
+     *
+     * @param entry the entry of the file
+     * @param attrs the attributes of the file
+     * @return true if the object id of the entry is the one of the file content
+     */
+    boolean isUpToDate(final Entry entry, final BasicFileAttributes attrs) {
+        final FileTime lastModified = attrs.lastModifiedTime();
+        final long nanos = lastModified.to(TimeUnit.NANOSECONDS);
+        if (nanos >= this.modified || (int) attrs.size() != entry.size
+                || nanos / NANOS_PER_SECOND != entry.seconds) {
+            return false;
+        }
+        // git may be built without nanosecond timestamps, the file system may only have millisecond ones
+        return entry.nanos == 0 || entry.nanos == nanos % NANOS_PER_SECOND;
+    }
+
+    private static int indexOfNul(final byte[] data, final int from) throws IOException {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == 0) {
+                return i;
+            }
+        }
+        throw new IOException("Corrupt git index");
+    }
+
+    private static int readInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8
+                | bytes[offset + 3] & 0xff;
+    }
+
+    /**
+     * A staged file.
+     */
+    static final class Entry {
+
+        final ObjectId id;
+
+        private final long seconds;
+
+        private final int nanos;
+
+        private final int size;
+
+        Entry(final ObjectId id, final long seconds, final int nanos, final int size) {
+            this.id = id;
+            this.seconds = seconds;
+            this.nanos = nanos;
+            this.size = size;
+        }
+    }
+
+}
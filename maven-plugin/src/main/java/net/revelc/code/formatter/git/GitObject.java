@@ -0,0 +1,61 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter.git;
+
+/**
+ * The type and content of a git object.
+ */
+final class GitObject {
+
+    static final int COMMIT = 1;
+
+    static final int TREE = 2;
+
+    static final int BLOB = 3;
+
+    static final int TAG = 4;
+
+    final int type;
+
+    final byte[] data;
+
+    GitObject(final int type, final byte[] data) {
+        this.type = type;
+        this.data = data;
+    }
+
+    /**
+     * @param name the name of the type, as in the header of loose objects
+     * @return the type, or -1 if unknown
+     */
+    static int typeOf(final String name) {
+        switch (name) {
+        case "commit":
+            return COMMIT;
+        case "tree":
+            return TREE;
+        case "blob":
+            return BLOB;
+        case "tag":
+            return TAG;
+        default:
+            return -1;
+        }
+    }
+
+}
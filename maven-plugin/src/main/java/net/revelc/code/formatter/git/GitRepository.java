@@ -0,0 +1,394 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the references and objects of a local git repository, loose or packed, without running git.
+ */
+final class GitRepository implements Closeable {
+
+    /** Maximum number of symbolic references or tags followed. */
+    private static final int MAX_INDIRECTIONS = 10;
+
+    private static final String REF_PREFIX = "ref: ";
+
+    private static final String GITDIR_PREFIX = "gitdir: ";
+
+    private static final Pattern ANCESTRY_SUFFIX = Pattern.compile("([~^][0-9]*)+$");
+
+    private static final Pattern ANCESTRY_STEP = Pattern.compile("([~^])([0-9]*)");
+
+    private static final int DIRECTORY_MODE = 040000;
+
+    private static final int GITLINK_MODE = 0160000;
+
+    private final Path workTree;
+
+    private final Path gitDir;
+
+    private final Path commonDir;
+
+    private final List<Path> objectDirectories = new ArrayList<>();
+
+    private List<PackFile> packs;
+
+    private Map<String, ObjectId> packedRefs;
+
+    private GitRepository(final Path workTree, final Path gitDir) throws IOException {
+        this.workTree = workTree;
+        this.gitDir = gitDir;
+        // linked work trees share the objects and references of the main repository
+        final Path commonDirFile = gitDir.resolve("commondir");
+        this.commonDir = Files.isRegularFile(commonDirFile)
+                ? gitDir.resolve(readFirstLine(commonDirFile)).normalize() : gitDir;
+
+        final Path objects = this.commonDir.resolve("objects");
+        this.objectDirectories.add(objects);
+        final Path alternates = objects.resolve("info").resolve("alternates");
+        if (Files.isRegularFile(alternates)) {
+            for (final String line : Files.readAllLines(alternates, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    this.objectDirectories.add(objects.resolve(line.trim()).normalize());
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the repository holding a directory, looking for a <code>.git</code> directory, or a <code>.git</code> file
+     * pointing to the repository of a linked work tree or submodule, in the directory and its parents.
+     *
+     * @param directory the real path of the directory
+     * @return the repository, or null if the directory is not in a repository
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static GitRepository find(final Path directory) throws IOException {
+        for (Path dir = directory; dir != null; dir = dir.getParent()) {
+            final Path dotGit = dir.resolve(".git");
+            if (Files.isDirectory(dotGit) && Files.isRegularFile(dotGit.resolve("HEAD"))) {
+                return new GitRepository(dir, dotGit);
+            }
+            if (Files.isRegularFile(dotGit)) {
+                final String line = readFirstLine(dotGit);
+                if (line.startsWith(GITDIR_PREFIX)) {
+                    return new GitRepository(dir, dir.resolve(line.substring(GITDIR_PREFIX.length())).normalize());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the root directory of the checked out files
+     */
+    Path getWorkTree() {
+        return this.workTree;
+    }
+
+    /**
+     * @return the index file, also known as the staging area
+     */
+    Path getIndexFile() {
+        return this.gitDir.resolve("index");
+    }
+
+    /**
+     * Resolve a revision the way <code>git rev-parse</code> does for full object ids and reference names: as is, in
+     * <code>refs/</code>, as a tag, a branch, a remote branch, or the default branch of a remote. The name may be
+     * followed by ancestry suffixes, <code>~n</code> for the n-th first parent and <code>^n</code> for the n-th parent.
+     *
+     * @param revision the revision
+     * @return the object id, or null if no reference or commit matches
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    ObjectId resolve(final String revision) throws IOException {
+        final Matcher suffix = ANCESTRY_SUFFIX.matcher(revision);
+        if (suffix.find() && suffix.start() > 0) {
+            ObjectId id = resolveName(revision.substring(0, suffix.start()));
+            final Matcher step = ANCESTRY_STEP.matcher(revision);
+            step.region(suffix.start(), revision.length());
+            while (id != null && step.find()) {
+                final int n;
+                try {
+                    n = step.group(2).isEmpty() ? 1 : Integer.parseInt(step.group(2));
+                } catch (final NumberFormatException e) {
+                    throw new IOException("Invalid revision " + revision, e);
+                }
+                if (step.group(1).equals("~")) {
+                    for (int i = 0; i < n && id != null; i++) {
+                        id = getParent(id, 1);
+                    }
+                } else if (n > 0) {
+                    id = getParent(id, n);
+                }
+            }
+            return id;
+        }
+        return resolveName(revision);
+    }
+
+    private ObjectId resolveName(final String revision) throws IOException {
+        final ObjectId id = ObjectId.fromHex(revision);
+        if (id != null) {
+            return id;
+        }
+        if (revision.contains("..") || revision.startsWith("/")) {
+            return null;
+        }
+        for (final String name : Arrays.asList(revision, "refs/" + revision, "refs/tags/" + revision,
+                "refs/heads/" + revision, "refs/remotes/" + revision, "refs/remotes/" + revision + "/HEAD")) {
+            final ObjectId ref = readRef(name, 0);
+            if (ref != null) {
+                return ref;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the n-th parent of a commit, or null if it has less parents
+     */
+    private ObjectId getParent(final ObjectId id, final int n) throws IOException {
+        final GitObject commit = read(peel(id, GitObject.COMMIT));
+        int parents = 0;
+        for (final String line : new String(commit.data, StandardCharsets.UTF_8).split("\n")) {
+            if (line.isEmpty()) {
+                // end of the header
+                break;
+            }
+            if (line.startsWith("parent ") && ++parents == n) {
+                return ObjectId.fromHex(line.substring("parent ".length()).trim());
+            }
+        }
+        return null;
+    }
+
+    private ObjectId readRef(final String name, final int depth) throws IOException {
+        if (depth > MAX_INDIRECTIONS) {
+            throw new IOException("Too many symbolic references from " + name);
+        }
+        for (final Path dir : new LinkedHashSet<>(Arrays.asList(this.gitDir, this.commonDir))) {
+            final Path file = dir.resolve(name);
+            if (Files.isRegularFile(file)) {
+                final String content = readFirstLine(file);
+                if (content.startsWith(REF_PREFIX)) {
+                    return readRef(content.substring(REF_PREFIX.length()).trim(), depth + 1);
+                }
+                return ObjectId.fromHex(content);
+            }
+        }
+        return getPackedRefs().get(name);
+    }
+
+    private Map<String, ObjectId> getPackedRefs() throws IOException {
+        if (this.packedRefs == null) {
+            this.packedRefs = new HashMap<>();
+            final Path file = this.commonDir.resolve("packed-refs");
+            if (Files.isRegularFile(file)) {
+                for (final String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    // skip the header and the peeled tags
+                    final int space = line.indexOf(' ');
+                    if (line.startsWith("#") || line.startsWith("^") || space < 0) {
+                        continue;
+                    }
+                    final ObjectId id = ObjectId.fromHex(line.substring(0, space));
+                    if (id != null) {
+                        this.packedRefs.put(line.substring(space + 1).trim(), id);
+                    }
+                }
+            }
+        }
+        return this.packedRefs;
+    }
+
+    /**
+     * List the files of a commit, tag or tree.
+     *
+     * @param id the commit, tag or tree
+     * @return the object ids of the files by path, separated by slashes, submodules excluded
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    Map<String, ObjectId> readTree(final ObjectId id) throws IOException {
+        final Map<String, ObjectId> files = new HashMap<>();
+        readTree(peel(id, GitObject.TREE), "", files);
+        return files;
+    }
+
+    /**
+     * Follow the tags, and for a tree the commit, to an object of a type.
+     */
+    private ObjectId peel(final ObjectId id, final int type) throws IOException {
+        ObjectId current = id;
+        for (int i = 0; i < MAX_INDIRECTIONS; i++) {
+            final GitObject object = read(current);
+            if (object.type == type) {
+                return current;
+            }
+            // the first header line of a commit names its tree, the one of a tag the tagged object
+            final String firstLine = new String(object.data, 0, Math.min(object.data.length, 128),
+                    StandardCharsets.UTF_8);
+            final String prefix = object.type == GitObject.COMMIT ? "tree " : "object ";
+            final int end = prefix.length() + 2 * ObjectId.LENGTH;
+            if (object.type != GitObject.COMMIT && object.type != GitObject.TAG || !firstLine.startsWith(prefix)
+                    || firstLine.length() < end) {
+                throw new IOException("Not a commit: " + current);
+            }
+            current = ObjectId.fromHex(firstLine.substring(prefix.length(), end));
+            if (current == null) {
+                throw new IOException("Corrupt object: " + id);
+            }
+        }
+        throw new IOException("Too many tags from " + id);
+    }
+
+    private void readTree(final ObjectId id, final String prefix, final Map<String, ObjectId> files)
+            throws IOException {
+        final GitObject tree = read(id);
+        if (tree.type != GitObject.TREE) {
+            throw new IOException("Not a tree: " + id);
+        }
+        final byte[] data = tree.data;
+        int position = 0;
+        while (position < data.length) {
+            // each entry is the octal mode, a space, the name, a NUL byte and the object id
+            int mode = 0;
+            for (; position < data.length && data[position] != ' '; position++) {
+                if (data[position] < '0' || data[position] > '7' || mode > 0177777) {
+                    throw new IOException("Corrupt tree: " + id);
+                }
+                mode = mode * 8 + data[position] - '0';
+            }
+            final int nameStart = ++position;
+            while (position < data.length && data[position] != 0) {
+                position++;
+            }
+            if (position + 1 + ObjectId.LENGTH > data.length) {
+                throw new IOException("Corrupt tree: " + id);
+            }
+            final String name = new String(data, nameStart, position - nameStart, StandardCharsets.UTF_8);
+            final ObjectId entry = ObjectId.fromBytes(data, position + 1);
+            position += 1 + ObjectId.LENGTH;
+
+            if (mode == DIRECTORY_MODE) {
+                readTree(entry, prefix + name + '/', files);
+            } else if (mode != GITLINK_MODE) {
+                files.put(prefix + name, entry);
+            }
+        }
+    }
+
+    /**
+     * Read an object, loose or packed.
+     *
+     * @param id the object id
+     * @return the object
+     * @throws IOException Signals that an I/O exception has occurred, or that the object is missing, e.g. from a
+     *             shallow clone.
+     */
+    GitObject read(final ObjectId id) throws IOException {
+        final String hex = id.toString();
+        for (final Path objects : this.objectDirectories) {
+            final Path loose = objects.resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+            if (Files.isRegularFile(loose)) {
+                return readLoose(loose);
+            }
+        }
+        for (final PackFile pack : getPacks()) {
+            final GitObject object = pack.read(id);
+            if (object != null) {
+                return object;
+            }
+        }
+        throw new IOException("Missing object " + hex);
+    }
+
+    private static GitObject readLoose(final Path file) throws IOException {
+        final byte[] bytes;
+        try (InputStream in = new InflaterInputStream(Files.newInputStream(file))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            bytes = out.toByteArray();
+        }
+        // the content follows a header made of the type, a space, the size and a NUL byte
+        int nul = 0;
+        while (nul < bytes.length && bytes[nul] != 0) {
+            nul++;
+        }
+        final String header = new String(bytes, 0, nul, StandardCharsets.US_ASCII);
+        final int space = header.indexOf(' ');
+        final int type = space < 0 ? -1 : GitObject.typeOf(header.substring(0, space));
+        if (type < 0 || nul == bytes.length) {
+            throw new IOException("Corrupt object " + file);
+        }
+        return new GitObject(type, Arrays.copyOfRange(bytes, nul + 1, bytes.length));
+    }
+
+    private List<PackFile> getPacks() throws IOException {
+        if (this.packs == null) {
+            this.packs = new ArrayList<>();
+            for (final Path objects : this.objectDirectories) {
+                final Path packDir = objects.resolve("pack");
+                if (!Files.isDirectory(packDir)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> indexes = Files.newDirectoryStream(packDir, "*.idx")) {
+                    for (final Path index : indexes) {
+                        this.packs.add(PackFile.open(this, index));
+                    }
+                }
+            }
+        }
+        return this.packs;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.packs != null) {
+            for (final PackFile pack : this.packs) {
+                pack.close();
+            }
+        }
+    }
+
+    private static String readFirstLine(final Path file) throws IOException {
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        return lines.isEmpty() ? "" : lines.get(0).trim();
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter.git;
+
+import java.util.Arrays;
+
+/**
+ * The SHA-1 name of a git object.
+ */
+final class ObjectId {
+
+    static final int LENGTH = 20;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] bytes;
+
+    private final int hashCode;
+
+    private ObjectId(final byte[] bytes) {
+        this.bytes = bytes;
+        this.hashCode = Arrays.hashCode(bytes);
+    }
+
+    /**
+     * @param bytes the bytes holding the name
+     * @param offset the offset of the name in the bytes
+     * @return the object id
+     */
+    static ObjectId fromBytes(final byte[] bytes, final int offset) {
+        return new ObjectId(Arrays.copyOfRange(bytes, offset, offset + LENGTH));
+    }
+
+    /**
+     * @param hex the name in hexadecimal
+     * @return the object id, or null if the name is not a full hexadecimal name
+     */
+    static ObjectId fromHex(final String hex) {
+        if (hex.length() != 2 * LENGTH) {
+            return null;
+        }
+        final byte[] bytes = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            final int high = Character.digit(hex.charAt(2 * i), 16);
+            final int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return new ObjectId(bytes);
+    }
+
+    /**
+     * Compare to the name held by some bytes, e.g. the names sorted in a pack index.
+     *
+     * @return a negative integer, zero, or a positive integer as this name is lower, equal or greater
+     */
+    int compareTo(final byte[] other, final int offset) {
+        for (int i = 0; i < LENGTH; i++) {
+            final int diff = (this.bytes[i] & 0xff) - (other[offset + i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the first byte of the name, which selects the loose object directory and the pack index fan-out
+     */
+    int getFirstByte() {
+        return this.bytes[0] & 0xff;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof ObjectId && Arrays.equals(this.bytes, ((ObjectId) obj).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public String toString() {
+        final char[] hex = new char[2 * LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            hex[2 * i] = HEX[(this.bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[this.bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+}
@@ -0,0 +1,321 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter.git;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A pack of git objects along with its version 2 index, from which objects are read on demand, resolving the delta
+ * chains.
+ */
+final class PackFile implements Closeable {
+
+    private static final int INDEX_MAGIC = 0xff744f63;
+
+    private static final int FAN_OUT_OFFSET = 8;
+
+    private static final int NAMES_OFFSET = FAN_OUT_OFFSET + 256 * 4;
+
+    private static final int OFS_DELTA = 6;
+
+    private static final int REF_DELTA = 7;
+
+    /** Enough bytes for the header of any entry. */
+    private static final int MAX_HEADER_SIZE = 32;
+
+    /** Number of delta bases kept, as they are shared by the objects of the same chain. */
+    private static final int BASE_CACHE_SIZE = 256;
+
+    private final GitRepository repository;
+
+    private final Path pack;
+
+    private final byte[] index;
+
+    private final int count;
+
+    private final Map<Long, GitObject> bases = new LinkedHashMap<Long, GitObject>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, GitObject> eldest) {
+            return size() > BASE_CACHE_SIZE;
+        }
+    };
+
+    private FileChannel channel;
+
+    private PackFile(final GitRepository repository, final Path pack, final byte[] index) {
+        this.repository = repository;
+        this.pack = pack;
+        this.index = index;
+        this.count = readInt(index, FAN_OUT_OFFSET + 255 * 4);
+    }
+
+    /**
+     * Open the index of a pack.
+     *
+     * @param repository the repository, holding the bases of the deltas referring to other objects
+     * @param indexFile the <code>.idx</code> file
+     * @return the pack
+     * @throws IOException Signals that an I/O exception has occurred, or that the index version is not supported.
+     */
+    static PackFile open(final GitRepository repository, final Path indexFile) throws IOException {
+        final byte[] index = Files.readAllBytes(indexFile);
+        if (index.length < NAMES_OFFSET || readInt(index, 0) != INDEX_MAGIC || readInt(index, 4) != 2) {
+            throw new IOException("Unsupported pack index " + indexFile);
+        }
+        // the names, the checksums and the offsets of the objects
+        final int count = readInt(index, FAN_OUT_OFFSET + 255 * 4);
+        if (count < 0 || index.length < NAMES_OFFSET + (long) count * (ObjectId.LENGTH + 8)) {
+            throw new IOException("Corrupt pack index " + indexFile);
+        }
+        final String name = indexFile.getFileName().toString();
+        final Path pack = indexFile.resolveSibling(name.substring(0, name.length() - ".idx".length()) + ".pack");
+        return new PackFile(repository, pack, index);
+    }
+
+    /**
+     * @param id the object id
+     * @return the object, or null if not in this pack
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    GitObject read(final ObjectId id) throws IOException {
+        final long offset = findOffset(id);
+        return offset < 0 ? null : read(offset);
+    }
+
+    /**
+     * Find an object in the index, binary searching the names sharing its first byte.
+     */
+    private long findOffset(final ObjectId id) throws IOException {
+        final int first = id.getFirstByte();
+        int low = first == 0 ? 0 : readInt(this.index, FAN_OUT_OFFSET + (first - 1) * 4);
+        int high = readInt(this.index, FAN_OUT_OFFSET + first * 4);
+        if (low < 0 || high > this.count) {
+            throw new IOException("Corrupt pack index of " + this.pack);
+        }
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            final int cmp = id.compareTo(this.index, NAMES_OFFSET + middle * ObjectId.LENGTH);
+            if (cmp < 0) {
+                high = middle;
+            } else if (cmp > 0) {
+                low = middle + 1;
+            } else {
+                final int offsets = NAMES_OFFSET + this.count * (ObjectId.LENGTH + 4);
+                final int offset = readInt(this.index, offsets + middle * 4);
+                if (offset >= 0) {
+                    return offset;
+                }
+                // the offsets beyond 2 GB are in the table of large offsets
+                final long largeOffset = offsets + this.count * 4 + (offset & 0x7fffffffL) * 8;
+                if (largeOffset + 8 > this.index.length) {
+                    throw new IOException("Corrupt pack index of " + this.pack);
+                }
+                return readLong(this.index, (int) largeOffset);
+            }
+        }
+        return -1;
+    }
+
+    private GitObject read(final long offset) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(MAX_HEADER_SIZE);
+        getChannel().read(header, offset);
+        header.flip();
+
+        int c = header.get() & 0xff;
+        final int type = (c >> 4) & 7;
+        long size = c & 15;
+        int shift = 4;
+        while ((c & 0x80) != 0) {
+            c = header.get() & 0xff;
+            size |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        }
+
+        switch (type) {
+        case GitObject.COMMIT:
+        case GitObject.TREE:
+        case GitObject.BLOB:
+        case GitObject.TAG:
+            return new GitObject(type, inflate(offset + header.position(), size));
+        case OFS_DELTA:
+            c = header.get() & 0xff;
+            long distance = c & 0x7f;
+            while ((c & 0x80) != 0) {
+                c = header.get() & 0xff;
+                distance = ((distance + 1) << 7) | (c & 0x7f);
+            }
+            final byte[] ofsDelta = inflate(offset + header.position(), size);
+            return applyDelta(readBase(offset - distance), ofsDelta);
+        case REF_DELTA:
+            final byte[] name = new byte[ObjectId.LENGTH];
+            header.get(name);
+            final byte[] refDelta = inflate(offset + header.position(), size);
+            return applyDelta(this.repository.read(ObjectId.fromBytes(name, 0)), refDelta);
+        default:
+            throw new IOException("Unknown object type " + type + " in " + this.pack);
+        }
+    }
+
+    private GitObject readBase(final long offset) throws IOException {
+        GitObject base = this.bases.get(offset);
+        if (base == null) {
+            base = read(offset);
+            this.bases.put(offset, base);
+        }
+        return base;
+    }
+
+    private byte[] inflate(final long offset, final long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Object too large in " + this.pack);
+        }
+        final byte[] data = new byte[(int) size];
+        final Inflater inflater = new Inflater();
+        try {
+            final ByteBuffer input = ByteBuffer.allocate(8192);
+            long position = offset;
+            int length = 0;
+            while (length < data.length) {
+                if (inflater.needsInput()) {
+                    input.clear();
+                    final int read = getChannel().read(input, position);
+                    if (read <= 0) {
+                        throw new EOFException("Truncated object in " + this.pack);
+                    }
+                    position += read;
+                    inflater.setInput(input.array(), 0, read);
+                }
+                final int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsDictionary())) {
+                    throw new IOException("Corrupt object in " + this.pack);
+                }
+                length += inflated;
+            }
+            return data;
+        } catch (final DataFormatException e) {
+            throw new IOException("Corrupt object in " + this.pack, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Rebuild an object from its base and a delta made of instructions copying ranges of the base or inserting new
+     * bytes.
+     */
+    static GitObject applyDelta(final GitObject base, final byte[] delta) throws IOException {
+        int position = 0;
+        long baseSize = 0;
+        int shift = 0;
+        int c;
+        do {
+            c = delta[position++] & 0xff;
+            baseSize |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        long resultSize = 0;
+        shift = 0;
+        do {
+            c = delta[position++] & 0xff;
+            resultSize |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        if (baseSize != base.data.length || resultSize > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt delta");
+        }
+
+        final byte[] result = new byte[(int) resultSize];
+        int length = 0;
+        while (position < delta.length) {
+            final int command = delta[position++] & 0xff;
+            if ((command & 0x80) != 0) {
+                int copyOffset = 0;
+                int copySize = 0;
+                for (int i = 0; i < 4; i++) {
+                    if ((command & (1 << i)) != 0) {
+                        copyOffset |= (delta[position++] & 0xff) << (8 * i);
+                    }
+                }
+                for (int i = 0; i < 3; i++) {
+                    if ((command & (0x10 << i)) != 0) {
+                        copySize |= (delta[position++] & 0xff) << (8 * i);
+                    }
+                }
+                if (copySize == 0) {
+                    copySize = 0x10000;
+                }
+                if (copyOffset < 0 || copyOffset + copySize > base.data.length || length + copySize > result.length) {
+                    throw new IOException("Corrupt delta");
+                }
+                System.arraycopy(base.data, copyOffset, result, length, copySize);
+                length += copySize;
+            } else if (command != 0) {
+                if (position + command > delta.length || length + command > result.length) {
+                    throw new IOException("Corrupt delta");
+                }
+                System.arraycopy(delta, position, result, length, command);
+                position += command;
+                length += command;
+            } else {
+                throw new IOException("Corrupt delta");
+            }
+        }
+        if (length != result.length) {
+            throw new IOException("Corrupt delta");
+        }
+        return new GitObject(base.type, result);
+    }
+
+    private FileChannel getChannel() throws IOException {
+        if (this.channel == null) {
+            this.channel = FileChannel.open(this.pack, StandardOpenOption.READ);
+        }
+        return this.channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+
+    private static int readInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8
+                | bytes[offset + 3] & 0xff;
+    }
+
+    private static long readLong(final byte[] bytes, final int offset) {
+        return (long) readInt(bytes, offset) << 32 | readInt(bytes, offset + 4) & 0xffffffffL;
+    }
+
+}
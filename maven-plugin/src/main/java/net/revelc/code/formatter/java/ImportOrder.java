@@ -14,8 +14,213 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+
 package net.revelc.code.formatter.java;
 
-public class ImportOrder {
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * An import order compiled once into a prefix tree of its items, so that each import is matched to its best order
+ * item in a single walk over its characters. The sorted import blocks are memoized by import set, as the same sets
+ * repeat across the files of a code base. Thread safe, so a single instance can be shared by all the formatting
+ * threads.
+ */
+public final class ImportOrder {
+
+    private static final String STATIC_PREFIX = "static ";
+
+    /** Maximum number of import blocks memoized. */
+    static final int MAX_SORTED_BLOCKS = 1024;
+
+    private final List<String> template;
+
+    private final Set<String> items;
+
+    private final Node root = new Node();
+
+    private final Cache<HashCode, String> sortedBlocks = CacheBuilder.newBuilder().maximumSize(MAX_SORTED_BLOCKS)
+            .build();
+
+    /**
+     * Compile the import order. Items starting with <code>\#</code> are static imports, a <code>static </code> item
+     * matching the static imports not matching another item is added unless present.
+     *
+     * @param importOrder the items of the import order, as read from an Eclipse import order file
+     */
+    public ImportOrder(List<String> importOrder) {
+        List<String> normalized = new ArrayList<>(importOrder);
+        normalizeStaticOrderItems(normalized);
+        putStaticItemIfNotExists(normalized);
+        this.template = Collections.unmodifiableList(normalized);
+        this.items = Collections.unmodifiableSet(new HashSet<>(normalized));
+        for (int rank = normalized.size() - 1; rank >= 0; rank--) {
+            String item = normalized.get(rank);
+            Node node = this.root;
+            for (int i = 0; i < item.length(); i++) {
+                Node child = node.children.get(item.charAt(i));
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(item.charAt(i), child);
+                }
+                node = child;
+            }
+            node.item = item;
+            node.rank = rank;
+        }
+    }
+
+    /**
+     * Sort and group the imports, rendered as import lines separated by blank lines between groups.
+     *
+     * @param imports the distinct imports
+     * @return the import block
+     */
+    String sort(Collection<String> imports) {
+        String[] normalized = imports.toArray(new String[imports.size()]);
+        // the block only depends on the set of imports
+        Arrays.sort(normalized);
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putInt(normalized.length);
+        for (String anImport : normalized) {
+            hasher.putInt(anImport.length()).putUnencodedChars(anImport);
+        }
+        HashCode key = hasher.hash();
+
+        String block = this.sortedBlocks.getIfPresent(key);
+        if (block == null) {
+            StringBuilder sb = new StringBuilder();
+            for (String line : ImportSorterImpl.sort(Arrays.asList(normalized), this)) {
+                sb.append(line);
+            }
+            block = sb.toString();
+            this.sortedBlocks.put(key, block);
+        }
+        return block;
+    }
+
+    /**
+     * @return the number of import blocks memoized
+     */
+    long getSortedBlockCount() {
+        return this.sortedBlocks.size();
+    }
+
+    /**
+     * @return the items in order, with the static items normalized
+     */
+    List<String> getTemplate() {
+        return this.template;
+    }
+
+    /**
+     * @return the distinct items
+     */
+    Set<String> getItems() {
+        return this.items;
+    }
+
+    /**
+     * @return true if no item appears twice, the imports of an item appearing twice are repeated by the sort
+     */
+    boolean hasDistinctItems() {
+        return this.items.size() == this.template.size();
+    }
+
+    boolean isOrderItem(String item) {
+        return this.items.contains(item);
+    }
+
+    /**
+     * Find the longest order item the import starts with.
+     *
+     * @param anImport the import, <code>static </code> prefixed for static imports
+     * @return the order item, or null if none matches
+     */
+    String getBestMatchingItem(String anImport) {
+        Node node = this.root;
+        String best = node.item;
+        for (int i = 0; i < anImport.length(); i++) {
+            node = node.children.get(anImport.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.item != null) {
+                best = node.item;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find the rank in the order of the longest order item an import starts with, reading the import in place.
+     *
+     * @param code the code holding the import
+     * @param from the index of the import in the code, <code>static </code> prefixed for static imports
+     * @param to the index of the end of the import in the code
+     * @return the rank of the order item, or -1 if none matches
+     */
+    int getBestMatchingRank(String code, int from, int to) {
+        Node node = this.root;
+        int rank = node.rank;
+        for (int i = from; i < to; i++) {
+            node = node.children.get(code.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.item != null) {
+                rank = node.rank;
+            }
+        }
+        return rank;
+    }
+
+    private static void putStaticItemIfNotExists(List<String> allImportOrderItems) {
+        boolean contains = false;
+        int indexOfFirstStatic = 0;
+        for (int i = 0; i < allImportOrderItems.size(); i++) {
+            String allImportOrderItem = allImportOrderItems.get(i);
+            if (allImportOrderItem.equals(STATIC_PREFIX)) {
+                contains = true;
+            }
+            if (allImportOrderItem.startsWith(STATIC_PREFIX)) {
+                indexOfFirstStatic = i;
+            }
+        }
+        if (!contains) {
+            allImportOrderItems.add(indexOfFirstStatic, STATIC_PREFIX);
+        }
+    }
+
+    private static void normalizeStaticOrderItems(List<String> allImportOrderItems) {
+        for (int i = 0; i < allImportOrderItems.size(); i++) {
+            String s = allImportOrderItems.get(i);
+            if (s.startsWith("\\#")) {
+                allImportOrderItems.set(i, s.replace("\\#", STATIC_PREFIX));
+            }
+        }
+    }
+
+    private static final class Node {
+
+        private final Map<Character, Node> children = new HashMap<>();
+
+        private String item;
+
+        private int rank = -1;
+    }
 
 }
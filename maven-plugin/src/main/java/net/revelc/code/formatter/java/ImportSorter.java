@@ -16,92 +16,279 @@
  */
 package net.revelc.code.formatter.java;
 
-import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Set;
 
 //Based on ImportSorterStep from https://github.com/krasa/EclipseCodeFormatter,
 //which itself is licensed under the Apache 2.0 license.
 final class ImportSorter {
     private static final int START_INDEX_OF_IMPORTS_PACKAGE_DECLARATION = 7;
+    private static final String IMPORT_PREFIX = "import ";
     static final String N = "\n";
 
-    private final List<String> importsOrder;
+    private final ImportOrder importsOrder;
+
+    private final boolean removeUnusedImports;
 
     ImportSorter(List<String> importsOrder) {
-        this.importsOrder = new ArrayList<>(importsOrder);
+        this(new ImportOrder(importsOrder), false);
+    }
+
+    ImportSorter(ImportOrder importsOrder, boolean removeUnusedImports) {
+        this.importsOrder = importsOrder;
+        this.removeUnusedImports = removeUnusedImports;
     }
 
+    /**
+     * Sort the imports of the document, in a single pass over its lines. The lines from the first to the last import
+     * are replaced by the sorted imports, the line separators are normalized to "\n" and the trailing blank lines are
+     * dropped. The unused imports are removed if requested.
+     */
     public String format(String raw) {
-        // parse file
-        Scanner scanner = new Scanner(raw);
-        int firstImportLine = 0;
-        int lastImportLine = 0;
-        int line = 0;
-        List<String> imports = new ArrayList<>();
-        while (scanner.hasNext()) {
-            line++;
-            String next = scanner.nextLine();
-            if (next == null) {
-                break;
+        // whether an import is used is only known from a scan of the whole code
+        if (!removeUnusedImports && isAlreadySorted(raw)) {
+            return raw;
+        }
+
+        int lastToken = raw.length() - 1;
+        while (lastToken >= 0 && Character.isWhitespace(raw.charAt(lastToken))) {
+            lastToken--;
+        }
+        if (lastToken < 0) {
+            // nothing but blank lines
+            return raw.endsWith(N) ? "" : raw;
+        }
+        // the lines up to the one holding the last token are kept
+        final int end = indexOfLineSeparator(raw, lastToken);
+
+        int firstImportStart = -1;
+        int lastImportEnd = -1;
+        Set<String> imports = new LinkedHashSet<>();
+        boolean newLinesOnly = true;
+        int lineStart = 0;
+        while (true) {
+            int lineEnd = indexOfLineSeparator(raw, lineStart);
+            if (lineEnd < raw.length() && raw.charAt(lineEnd) != '\n') {
+                newLinesOnly = false;
             }
-            if (next.startsWith("import ")) {
-                int i = next.indexOf(".");
-                if (isNotValidImport(i)) {
-                    continue;
+            if (raw.startsWith(IMPORT_PREFIX, lineStart)) {
+                int i = indexOf(raw, '.', lineStart, lineEnd) - lineStart;
+                if (!isNotValidImport(i)) {
+                    if (firstImportStart == -1) {
+                        firstImportStart = lineStart;
+                    }
+                    lastImportEnd = lineEnd;
+                    int endIndex = indexOf(raw, ';', lineStart, lineEnd);
+                    imports.add(raw.substring(lineStart + START_INDEX_OF_IMPORTS_PACKAGE_DECLARATION,
+                            endIndex != -1 ? endIndex : lineEnd));
                 }
-                if (firstImportLine == 0) {
-                    firstImportLine = line;
+            }
+            if (lineEnd >= end) {
+                break;
+            }
+            lineStart = nextLineStart(raw, lineEnd);
+        }
+        // whether the lines of the document are kept as is, separators and all
+        final boolean keepsLines = newLinesOnly && end >= raw.length() - 1;
+
+        if (removeUnusedImports && firstImportStart != -1) {
+            int afterLastImport = lastImportEnd < end ? nextLineStart(raw, lastImportEnd) : end;
+            UnusedImports.removeUnused(imports, raw, 0, firstImportStart, afterLastImport, end);
+        }
+
+        final StringBuilder sb;
+        if (firstImportStart == -1) {
+            if (keepsLines) {
+                return raw;
+            }
+            sb = new StringBuilder(end + 1);
+            appendLines(sb, raw, 0, end);
+            sb.append(N);
+        } else {
+            String sortedImports = importsOrder.sort(imports);
+            if (keepsLines && isImportBlock(raw, firstImportStart, lastImportEnd, sortedImports)) {
+                return raw;
+            }
+            sb = new StringBuilder(raw.length() + sortedImports.length());
+            appendLines(sb, raw, 0, firstImportStart);
+            sb.append(sortedImports);
+            if (lastImportEnd < end) {
+                int restStart = nextLineStart(raw, lastImportEnd);
+                if (sortedImports.isEmpty()) {
+                    // all imports were unused, the blank lines before them already separate the rest
+                    while (isBlankLine(raw, restStart)) {
+                        restStart = nextLineStart(raw, indexOfLineSeparator(raw, restStart));
+                    }
                 }
-                lastImportLine = line;
-                int endIndex = next.indexOf(";");
+                appendLines(sb, raw, restStart, end);
+                sb.append(N);
+            }
+        }
+        if (!raw.endsWith(N)) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
 
-                String imprt = next.substring(START_INDEX_OF_IMPORTS_PACKAGE_DECLARATION,
-                        endIndex != -1 ? endIndex : next.length());
-                if (!imports.contains(imprt)) {
-                    imports.add(imprt);
+    /**
+     * Check in place whether sorting the imports would leave the document as is: its lines are separated by "\n"
+     * alone with no trailing blank line, and its imports are grouped by order item, one blank line apart, and sorted
+     * within each group. Only handles the imports all matching an item of an order without duplicate items, the
+     * others are left to the full sort.
+     */
+    private boolean isAlreadySorted(String raw) {
+        if (!importsOrder.hasDistinctItems()) {
+            return false;
+        }
+        int lastToken = -1;
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\n' && isLineSeparator(c)) {
+                return false;
+            }
+            if (!Character.isWhitespace(c)) {
+                lastToken = i;
+            }
+        }
+        if (lastToken < 0) {
+            return false;
+        }
+        int end = raw.indexOf(N, lastToken);
+        if (end != -1 && end != raw.length() - 1) {
+            // trailing blank lines
+            return false;
+        }
+
+        int previousStart = -1;
+        int previousEnd = -1;
+        int previousRank = -1;
+        int blankLines = 0;
+        boolean otherLines = false;
+        int lineStart = 0;
+        while (lineStart < raw.length()) {
+            int lineEnd = raw.indexOf(N, lineStart);
+            if (lineEnd == -1) {
+                lineEnd = raw.length();
+            }
+            if (raw.startsWith(IMPORT_PREFIX, lineStart)
+                    && !isNotValidImport(indexOf(raw, '.', lineStart, lineEnd) - lineStart)) {
+                int importStart = lineStart + START_INDEX_OF_IMPORTS_PACKAGE_DECLARATION;
+                int importEnd = lineEnd - 1;
+                if (indexOf(raw, ';', lineStart, lineEnd) != importEnd) {
+                    return false;
+                }
+                int rank = importsOrder.getBestMatchingRank(raw, importStart, importEnd);
+                if (rank == -1) {
+                    return false;
+                }
+                if (previousRank != -1) {
+                    if (otherLines || rank < previousRank) {
+                        return false;
+                    }
+                    if (rank == previousRank ? blankLines != 0
+                            || compare(raw, previousStart, previousEnd, importStart, importEnd) >= 0
+                            : blankLines != 1) {
+                        return false;
+                    }
+                }
+                previousStart = importStart;
+                previousEnd = importEnd;
+                previousRank = rank;
+                blankLines = 0;
+            } else if (previousRank != -1) {
+                // only allowed after the last import
+                if (lineEnd == lineStart) {
+                    blankLines++;
+                } else {
+                    otherLines = true;
                 }
             }
+            lineStart = lineEnd + 1;
         }
-        scanner.close();
+        return true;
+    }
 
-        List<String> sortedImports = ImportSorterImpl.sort(imports, importsOrder);
-        return applyImportsToDocument(raw, firstImportLine, lastImportLine, sortedImports);
+    /**
+     * Check whether the lines of the document from the first to the last import are the sorted imports.
+     */
+    private static boolean isImportBlock(String raw, int firstImportStart, int lastImportEnd, String sortedImports) {
+        // the last line of a document not ending with a line separator has none either
+        int blockEnd = lastImportEnd + 1;
+        return firstImportStart + sortedImports.length() == blockEnd && raw.regionMatches(firstImportStart,
+                sortedImports, 0, Math.min(sortedImports.length(), raw.length() - firstImportStart));
     }
 
-    private static String applyImportsToDocument(final String document, int firstImportLine, int lastImportLine,
-            List<String> strings) {
-        boolean importsAlreadyAppended = false;
-        Scanner scanner = new Scanner(document);
-        int curentLine = 0;
-        final StringBuilder sb = new StringBuilder();
-        while (scanner.hasNext()) {
-            curentLine++;
-            String next = scanner.nextLine();
-            if (next == null) {
-                break;
+    private static int compare(String s, int start1, int end1, int start2, int end2) {
+        int length = Math.min(end1 - start1, end2 - start2);
+        for (int i = 0; i < length; i++) {
+            char c1 = s.charAt(start1 + i);
+            char c2 = s.charAt(start2 + i);
+            if (c1 != c2) {
+                return c1 - c2;
             }
-            if (curentLine >= firstImportLine && curentLine <= lastImportLine) {
-                if (!importsAlreadyAppended) {
-                    for (String string : strings) {
-                        sb.append(string);
-                    }
+        }
+        return (end1 - start1) - (end2 - start2);
+    }
+
+    /**
+     * Append the region of the document, normalizing its line separators to "\n".
+     */
+    private static void appendLines(StringBuilder sb, String document, int from, int to) {
+        int run = from;
+        for (int i = from; i < to; i++) {
+            char c = document.charAt(i);
+            if (isLineSeparator(c)) {
+                sb.append(document, run, i).append(N);
+                if (c == '\r' && i + 1 < to && document.charAt(i + 1) == '\n') {
+                    i++;
                 }
-                importsAlreadyAppended = true;
-            } else {
-                append(sb, next);
+                run = i + 1;
             }
         }
-        scanner.close();
-        if (!document.endsWith("\n")) {
-            sb.setLength(sb.length() - 1);
+        sb.append(document, run, to);
+    }
+
+    /**
+     * Line separators as recognized by {@link java.util.Scanner#nextLine()}.
+     */
+    private static boolean isLineSeparator(char c) {
+        return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085';
+    }
+
+    private static int indexOfLineSeparator(String document, int from) {
+        for (int i = from; i < document.length(); i++) {
+            if (isLineSeparator(document.charAt(i))) {
+                return i;
+            }
         }
-        return sb.toString();
+        return document.length();
     }
 
-    private static void append(StringBuilder sb, String next) {
-        sb.append(next);
-        sb.append(N);
+    private static int nextLineStart(String document, int lineEnd) {
+        if (document.charAt(lineEnd) == '\r' && lineEnd + 1 < document.length()
+                && document.charAt(lineEnd + 1) == '\n') {
+            return lineEnd + 2;
+        }
+        return lineEnd + 1;
+    }
+
+    private static boolean isBlankLine(String document, int lineStart) {
+        for (int i = lineStart; i < document.length() && !isLineSeparator(document.charAt(i)); i++) {
+            if (!Character.isWhitespace(document.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(String document, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (document.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     private static boolean isNotValidImport(int i) {
@@ -20,26 +20,24 @@ package net.revelc.code.formatter.java;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /*not thread safe*/
 // Based on ImportSorterImpl from https://github.com/krasa/EclipseCodeFormatter,
 // which itself is licensed under the Apache 2.0 license.
 final class ImportSorterImpl {
 
-    private final List<String> template = new ArrayList<>();
+    private final List<String> template;
 
     private final Map<String, List<String>> matchingImports = new HashMap<>();
 
     private final List<String> notMatching = new ArrayList<>();
 
-    private final Set<String> allImportOrderItems = new HashSet<>();
+    private final ImportOrder importOrder;
 
-    static List<String> sort(List<String> imports, List<String> importsOrder) {
-        ImportSorterImpl importsSorter = new ImportSorterImpl(importsOrder);
+    static List<String> sort(List<String> imports, ImportOrder importOrder) {
+        ImportSorterImpl importsSorter = new ImportSorterImpl(importOrder);
         return importsSorter.sort(imports);
     }
 
@@ -47,43 +45,14 @@ final class ImportSorterImpl {
         filterMatchingImports(imports);
         mergeNotMatchingItems(false);
         mergeNotMatchingItems(true);
-        mergeMatchingItems();
+        List<String> merged = mergeMatchingItems();
 
-        return getResult();
+        return getResult(merged);
     }
 
-    private ImportSorterImpl(List<String> importOrder) {
-        List<String> importOrderCopy = new ArrayList<>(importOrder);
-        normalizeStaticOrderItems(importOrderCopy);
-        putStaticItemIfNotExists(importOrderCopy);
-        template.addAll(importOrderCopy);
-        this.allImportOrderItems.addAll(importOrderCopy);
-    }
-
-    private static void putStaticItemIfNotExists(List<String> allImportOrderItems) {
-        boolean contains = false;
-        int indexOfFirstStatic = 0;
-        for (int i = 0; i < allImportOrderItems.size(); i++) {
-            String allImportOrderItem = allImportOrderItems.get(i);
-            if (allImportOrderItem.equals("static ")) {
-                contains = true;
-            }
-            if (allImportOrderItem.startsWith("static ")) {
-                indexOfFirstStatic = i;
-            }
-        }
-        if (!contains) {
-            allImportOrderItems.add(indexOfFirstStatic, "static ");
-        }
-    }
-
-    private static void normalizeStaticOrderItems(List<String> allImportOrderItems) {
-        for (int i = 0; i < allImportOrderItems.size(); i++) {
-            String s = allImportOrderItems.get(i);
-            if (s.startsWith("\\#")) {
-                allImportOrderItems.set(i, s.replace("\\#", "static "));
-            }
-        }
+    private ImportSorterImpl(ImportOrder importOrder) {
+        this.importOrder = importOrder;
+        this.template = new ArrayList<>(importOrder.getTemplate());
     }
 
     /**
@@ -91,7 +60,7 @@ final class ImportSorterImpl {
      */
     private void filterMatchingImports(List<String> imports) {
         for (String anImport : imports) {
-            String orderItem = getBestMatchingImportOrderItem(anImport);
+            String orderItem = importOrder.getBestMatchingItem(anImport);
             if (orderItem != null) {
                 if (!matchingImports.containsKey(orderItem)) {
                     matchingImports.put(orderItem, new ArrayList<String>());
@@ -101,21 +70,7 @@ final class ImportSorterImpl {
                 notMatching.add(anImport);
             }
         }
-        notMatching.addAll(allImportOrderItems);
-    }
-
-    private String getBestMatchingImportOrderItem(String anImport) {
-        String matchingImport = null;
-        for (String orderItem : allImportOrderItems) {
-            if (anImport.startsWith(orderItem)) {
-                if (matchingImport == null) {
-                    matchingImport = orderItem;
-                } else {
-                    matchingImport = betterMatching(matchingImport, orderItem, anImport);
-                }
-            }
-        }
-        return matchingImport;
+        notMatching.addAll(importOrder.getItems());
     }
 
     /**
@@ -156,7 +111,7 @@ final class ImportSorterImpl {
     }
 
     private boolean isOrderItem(String notMatchingItem, boolean staticItems) {
-        boolean contains = allImportOrderItems.contains(notMatchingItem);
+        boolean contains = importOrder.isOrderItem(notMatchingItem);
         return contains && matchesStatic(staticItems, notMatchingItem);
     }
 
@@ -183,49 +138,45 @@ final class ImportSorterImpl {
         return (isStatic && staticItems) || (!isStatic && !staticItems);
     }
 
-    private void mergeMatchingItems() {
+    /**
+     * replaces each order item by its matching imports, separated from the previous and next groups by a blank line
+     */
+    private List<String> mergeMatchingItems() {
+        List<String> merged = new ArrayList<>(template.size() + matchingImports.size() * 2);
         for (int i = 0; i < template.size(); i++) {
             String item = template.get(i);
-            if (allImportOrderItems.contains(item)) {
-                // find matching items for order item
-                List<String> strings = matchingImports.get(item);
-                if (strings == null || strings.isEmpty()) {
-                    // if there is none, just remove order item
-                    template.remove(i);
-                    i--;
-                    continue;
-                }
-                List<String> matchingItems = new ArrayList<>(strings);
-                Collections.sort(matchingItems);
-
-                // replace order item by matching import statements
-                // this is a mess and it is only a luck that it works :-]
-                template.remove(i);
-                if (i != 0 && !template.get(i - 1).equals(ImportSorter.N)) {
-                    template.add(i, ImportSorter.N);
-                    i++;
-                }
-                if (i + 1 < template.size() && !template.get(i + 1).equals(ImportSorter.N)
-                        && !template.get(i).equals(ImportSorter.N)) {
-                    template.add(i, ImportSorter.N);
-                }
-                template.addAll(i, matchingItems);
-                if (i != 0 && !template.get(i - 1).equals(ImportSorter.N)) {
-                    template.add(i, ImportSorter.N);
-                }
+            if (!importOrder.isOrderItem(item)) {
+                merged.add(item);
+                continue;
+            }
+            List<String> strings = matchingImports.get(item);
+            if (strings == null || strings.isEmpty()) {
+                // if there is none, just drop order item
+                continue;
+            }
+            List<String> matchingItems = new ArrayList<>(strings);
+            Collections.sort(matchingItems);
 
+            if (!merged.isEmpty() && !merged.get(merged.size() - 1).equals(ImportSorter.N)) {
+                merged.add(ImportSorter.N);
+            }
+            merged.addAll(matchingItems);
+            if (i + 2 < template.size() && !template.get(i + 2).equals(ImportSorter.N)
+                    && !template.get(i + 1).equals(ImportSorter.N)) {
+                merged.add(ImportSorter.N);
             }
         }
         // if there is \n on the end, remove it
-        if (template.size() > 0 && template.get(template.size() - 1).equals(ImportSorter.N)) {
-            template.remove(template.size() - 1);
+        if (merged.size() > 0 && merged.get(merged.size() - 1).equals(ImportSorter.N)) {
+            merged.remove(merged.size() - 1);
         }
+        return merged;
     }
 
-    private List<String> getResult() {
-        List<String> strings = new ArrayList<>();
+    private static List<String> getResult(List<String> merged) {
+        List<String> strings = new ArrayList<>(merged.size());
 
-        for (String s : template) {
+        for (String s : merged) {
             if (s.equals(ImportSorter.N)) {
                 strings.add(s);
             } else {
@@ -235,29 +186,4 @@ final class ImportSorterImpl {
         return strings;
     }
 
-    private static String betterMatching(String order1, String order2, String anImport) {
-        if (order1.equals(order2)) {
-            throw new IllegalArgumentException("orders are same");
-        }
-        for (int i = 0; i < anImport.length() - 1; i++) {
-            if (order1.length() - 1 == i && order2.length() - 1 != i) {
-                return order2;
-            }
-            if (order2.length() - 1 == i && order1.length() - 1 != i) {
-                return order1;
-            }
-            char orderChar1 = order1.length() != 0 ? order1.charAt(i) : ' ';
-            char orderChar2 = order2.length() != 0 ? order2.charAt(i) : ' ';
-            char importChar = anImport.charAt(i);
-
-            if (importChar == orderChar1 && importChar != orderChar2) {
-                return order1;
-            } else if (importChar != orderChar1 && importChar == orderChar2) {
-                return order2;
-            }
-
-        }
-        return null;
-    }
-
 }
\ No newline at end of file
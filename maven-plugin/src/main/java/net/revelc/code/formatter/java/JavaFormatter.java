@@ -25,20 +25,25 @@ import net.revelc.code.formatter.AbstractCacheableFormatter;
 import net.revelc.code.formatter.ConfigurationSource;
 import net.revelc.code.formatter.Formatter;
 import net.revelc.code.formatter.LineEnding;
+import net.revelc.code.formatter.TextEdits;
 
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.ToolFactory;
 import org.eclipse.jdt.core.formatter.CodeFormatter;
 import org.eclipse.jface.text.BadLocationException;
-import org.eclipse.jface.text.Document;
-import org.eclipse.jface.text.IDocument;
 import org.eclipse.text.edits.TextEdit;
 
 public class JavaFormatter extends AbstractCacheableFormatter implements Formatter {
 
     private CodeFormatter formatter;
 
-    private List<String> importOrder;
+    private ImportOrder importOrder;
+
+    private boolean importsOnly;
+
+    private boolean removeUnusedImports;
+
+    private boolean initialized;
 
     @Override
     public void init(final Map<String, String> options, final ConfigurationSource cfg) {
@@ -50,11 +55,18 @@ public class JavaFormatter extends AbstractCacheableFormatter implements Formatt
 
         super.initCfg(cfg);
 
-        this.formatter = ToolFactory.createCodeFormatter(options);
+        if (!this.importsOnly) {
+            this.formatter = ToolFactory.createCodeFormatter(options);
+        }
+        this.initialized = true;
     }
 
     @Override
     public String doFormat(final String code, final LineEnding ending) throws IOException, BadLocationException {
+        if (this.importsOnly) {
+            return sortImports(code, ending);
+        }
+
         TextEdit te;
         try {
             te = this.formatter.format(CodeFormatter.K_COMPILATION_UNIT, code, 0, code.length(), 0, ending.getChars());
@@ -68,9 +80,8 @@ public class JavaFormatter extends AbstractCacheableFormatter implements Formatt
             return null;
         }
 
-        final IDocument doc = new Document(code);
-        te.apply(doc);
-        final String formattedCode = new ImportSorter(importOrder).format(doc.get());
+        final String formattedCode = new ImportSorter(this.importOrder, this.removeUnusedImports)
+                .format(TextEdits.apply(code, te));
 
         if (code.equals(formattedCode)) {
             return null;
@@ -78,12 +89,58 @@ public class JavaFormatter extends AbstractCacheableFormatter implements Formatt
         return formattedCode;
     }
 
+    /**
+     * Sort the imports of the code without formatting it, with the lines separated by the given line ending.
+     */
+    private String sortImports(final String code, final LineEnding ending) {
+        String lineSeparator = ending.getChars();
+        if (lineSeparator == null) {
+            lineSeparator = LineEnding.determineLineEnding(code).getChars();
+        }
+        String sortedCode = new ImportSorter(this.importOrder, this.removeUnusedImports).format(code);
+        if (lineSeparator != null && !ImportSorter.N.equals(lineSeparator)) {
+            sortedCode = sortedCode.replace(ImportSorter.N, lineSeparator);
+        }
+
+        if (code.equals(sortedCode)) {
+            return null;
+        }
+        return sortedCode;
+    }
+
     @Override
     public boolean isInitialized() {
-        return formatter != null;
+        return this.initialized;
+    }
+
+    /**
+     * Only sort the imports, without running the Eclipse formatter. To be set before initializing the formatter.
+     *
+     * @param importsOnly whether to only sort the imports
+     */
+    public void setImportsOnly(final boolean importsOnly) {
+        this.importsOnly = importsOnly;
     }
 
     public void setImportOrder(final List<String> importOrder) {
+        this.importOrder = new ImportOrder(importOrder);
+    }
+
+    /**
+     * Remove the unused single type imports when sorting the imports.
+     *
+     * @param removeUnusedImports whether to remove the unused imports
+     */
+    public void setRemoveUnusedImports(final boolean removeUnusedImports) {
+        this.removeUnusedImports = removeUnusedImports;
+    }
+
+    /**
+     * Set the import order compiled once for all the formatters.
+     *
+     * @param importOrder the compiled import order
+     */
+    public void setImportOrder(final ImportOrder importOrder) {
         this.importOrder = importOrder;
     }
 }
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter.java;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Removal of the unused single type imports, from a scan of the identifiers of the code. The identifiers of string
+ * and character literals and of comments are ignored, but not those of Javadoc comments as <code>{@link}</code> and
+ * <code>@see</code> tags can refer to imported types. Static and on demand imports are always kept.
+ */
+final class UnusedImports {
+
+    private static final String STATIC_PREFIX = "static ";
+
+    private static final String ON_DEMAND_SUFFIX = ".*";
+
+    private static final int MAX_NAME_LENGTH = 256;
+
+    private final Set<String> names = new HashSet<>();
+
+    /** Lengths of the names the identifiers are compared to, so that most identifiers are not materialized. */
+    private final boolean[] lengths = new boolean[MAX_NAME_LENGTH];
+
+    private final Set<String> usedNames = new HashSet<>();
+
+    private UnusedImports(Set<String> imports) {
+        for (String anImport : imports) {
+            if (isRemovable(anImport)) {
+                String name = simpleName(anImport);
+                if (name.length() < MAX_NAME_LENGTH) {
+                    this.names.add(name);
+                    this.lengths[name.length()] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the unused imports.
+     *
+     * @param imports the imports, as written after <code>import </code>
+     * @param code the code
+     * @param regions the bounds of the regions of the code the imports may be used in, in pairs
+     */
+    static void removeUnused(Set<String> imports, String code, int... regions) {
+        UnusedImports unusedImports = new UnusedImports(imports);
+        if (unusedImports.names.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i + 1 < regions.length; i += 2) {
+            unusedImports.scan(code, regions[i], regions[i + 1]);
+        }
+        for (Iterator<String> it = imports.iterator(); it.hasNext();) {
+            String anImport = it.next();
+            String name = simpleName(anImport);
+            if (isRemovable(anImport) && name.length() < MAX_NAME_LENGTH
+                    && !unusedImports.usedNames.contains(name)) {
+                it.remove();
+            }
+        }
+    }
+
+    private static boolean isRemovable(String anImport) {
+        return !anImport.startsWith(STATIC_PREFIX) && !anImport.endsWith(ON_DEMAND_SUFFIX);
+    }
+
+    private static String simpleName(String anImport) {
+        return anImport.substring(anImport.lastIndexOf('.') + 1).trim();
+    }
+
+    private void scan(String code, int from, int to) {
+        int i = from;
+        while (i < to) {
+            char c = code.charAt(i);
+            if (c == '/' && i + 1 < to && code.charAt(i + 1) == '/') {
+                i = skipLine(code, i, to);
+            } else if (c == '/' && i + 1 < to && code.charAt(i + 1) == '*') {
+                int end = code.indexOf("*/", i + 2);
+                end = end == -1 || end > to ? to : end + 2;
+                if (code.startsWith("/**", i) && !code.startsWith("/**/", i)) {
+                    scanIdentifiers(code, i + 3, end);
+                }
+                i = end;
+            } else if (c == '"' && code.startsWith("\"\"\"", i)) {
+                i = skipTextBlock(code, i + 3, to);
+            } else if (c == '"' || c == '\'') {
+                i = skipLiteral(code, i + 1, to, c);
+            } else if (Character.isJavaIdentifierStart(c)) {
+                i = identifier(code, i, to);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Collect the identifiers of a Javadoc comment, where quotes are plain text.
+     */
+    private void scanIdentifiers(String code, int from, int to) {
+        int i = from;
+        while (i < to) {
+            if (Character.isJavaIdentifierStart(code.charAt(i))) {
+                i = identifier(code, i, to);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private int identifier(String code, int from, int to) {
+        int end = from + 1;
+        while (end < to && Character.isJavaIdentifierPart(code.charAt(end))) {
+            end++;
+        }
+        int length = end - from;
+        if (length < MAX_NAME_LENGTH && this.lengths[length]) {
+            String identifier = code.substring(from, end);
+            if (this.names.contains(identifier)) {
+                this.usedNames.add(identifier);
+            }
+        }
+        return end;
+    }
+
+    private static int skipLine(String code, int from, int to) {
+        int i = from;
+        while (i < to && code.charAt(i) != '\n' && code.charAt(i) != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipTextBlock(String code, int from, int to) {
+        int i = from;
+        while (i < to) {
+            char c = code.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '"' && code.startsWith("\"\"\"", i)) {
+                return i + 3;
+            } else {
+                i++;
+            }
+        }
+        return to;
+    }
+
+    private static int skipLiteral(String code, int from, int to, char quote) {
+        int i = from;
+        while (i < to) {
+            char c = code.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else if (c == '\n' || c == '\r') {
+                // unterminated
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return to;
+    }
+
+}
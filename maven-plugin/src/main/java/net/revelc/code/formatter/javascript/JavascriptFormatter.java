@@ -20,8 +20,6 @@ import java.io.IOException;
 import java.util.Map;
 
 import org.eclipse.jface.text.BadLocationException;
-import org.eclipse.jface.text.Document;
-import org.eclipse.jface.text.IDocument;
 import org.eclipse.text.edits.TextEdit;
 import org.eclipse.wst.jsdt.core.ToolFactory;
 import org.eclipse.wst.jsdt.core.formatter.CodeFormatter;
@@ -30,6 +28,7 @@ import net.revelc.code.formatter.AbstractCacheableFormatter;
 import net.revelc.code.formatter.ConfigurationSource;
 import net.revelc.code.formatter.Formatter;
 import net.revelc.code.formatter.LineEnding;
+import net.revelc.code.formatter.TextEdits;
 
 public class JavascriptFormatter extends AbstractCacheableFormatter implements Formatter {
 
@@ -52,9 +51,7 @@ public class JavascriptFormatter extends AbstractCacheableFormatter implements F
             return null;
         }
 
-        IDocument doc = new Document(code);
-        te.apply(doc);
-        String formattedCode = doc.get();
+        String formattedCode = TextEdits.apply(code, te);
 
         if (code.equals(formattedCode)) {
             return null;
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link FormattedOutputStore}.
+ */
+public class FormattedOutputStoreTest {
+
+    private final File directory = new File("target/testoutput/output-store");
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(this.directory);
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        final FormattedOutputStore store = FormattedOutputStore.open(this.directory, new byte[] { 1 }, 1024 * 1024,
+                new SystemStreamLog());
+        final String code = "class A{}";
+        final String key = store.keyOf("JavaFormatter", LineEnding.LF, code);
+        assertNotEquals(key, store.keyOf("JavascriptFormatter", LineEnding.LF, code));
+        assertNotEquals(key, store.keyOf("JavaFormatter", LineEnding.CRLF, code));
+        assertNull(store.get(key, code));
+
+        store.put(key, "class A {\n}\n");
+        assertEquals("class A {\n}\n", store.get(key, code));
+
+        final String formatted = "class B {\n}\n";
+        final String unchangedKey = store.keyOf("JavaFormatter", LineEnding.LF, formatted);
+        store.put(unchangedKey, null);
+        assertSame(formatted, store.get(unchangedKey, formatted));
+    }
+
+    @Test
+    public void testSync() throws Exception {
+        final FormattedOutputStore store = FormattedOutputStore.open(this.directory, new byte[] { 1 }, 4096,
+                new SystemStreamLog());
+        final StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            // compresses poorly so that the entries add up
+            code.append(Integer.toHexString(i * 0x9e3779b9));
+            store.put(store.keyOf("JavaFormatter", LineEnding.LF, code.toString()), code.toString());
+        }
+        store.sync();
+        final long size = size();
+        assertTrue(size > 0);
+        assertTrue(size <= 3072);
+        assertTrue(new File(this.directory, "index.bin").isFile());
+    }
+
+    @Test
+    public void testReplacedEntryCountedOnce() throws Exception {
+        final FormattedOutputStore store = FormattedOutputStore.open(this.directory, new byte[] { 1 }, 4096,
+                new SystemStreamLog());
+        final String code = "class A{}";
+        final String key = store.keyOf("JavaFormatter", LineEnding.LF, code);
+        for (int i = 0; i < 100; i++) {
+            store.put(key, "class A {\n}\n");
+            store.sync();
+        }
+        assertEquals("class A {\n}\n", store.get(key, code));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAcrossBuilds() throws Exception {
+        final FormattedOutputStore first = FormattedOutputStore.open(this.directory, new byte[] { 1 }, 4096,
+                new SystemStreamLog());
+        final String[] codes = new String[12];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = code(i);
+            first.put(first.keyOf("JavaFormatter", LineEnding.LF, codes[i]), codes[i]);
+            Thread.sleep(2);
+        }
+        first.sync();
+        assertTrue(size() < 3072);
+
+        // the next build uses the oldest entry, so the following ones are evicted first
+        Thread.sleep(2);
+        final FormattedOutputStore second = FormattedOutputStore.open(this.directory, new byte[] { 1 }, 4096,
+                new SystemStreamLog());
+        final String oldestKey = second.keyOf("JavaFormatter", LineEnding.LF, codes[0]);
+        assertEquals(codes[0], second.get(oldestKey, codes[0]));
+        for (int i = codes.length; i < 2 * codes.length; i++) {
+            final String code = code(i);
+            second.put(second.keyOf("JavaFormatter", LineEnding.LF, code), code);
+        }
+        second.sync();
+        assertTrue(size() <= 3072);
+        assertEquals(codes[0], second.get(oldestKey, codes[0]));
+        assertNull(second.get(second.keyOf("JavaFormatter", LineEnding.LF, codes[1]), codes[1]));
+    }
+
+    private static String code(final int seed) {
+        // compresses poorly so that the entries add up
+        final StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            code.append(Integer.toHexString((seed * 40 + i) * 0x9e3779b9));
+        }
+        return code.toString();
+    }
+
+    private long size() throws IOException {
+        long size = 0;
+        for (final Object file : FileUtils.getFiles(this.directory, "**/*.gz", null)) {
+            size += ((File) file).length();
+        }
+        return size;
+    }
+
+}
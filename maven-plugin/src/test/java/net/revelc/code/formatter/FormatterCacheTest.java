@@ -0,0 +1,237 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link FormatterCache}.
+ */
+public class FormatterCacheTest {
+
+    private final Log log = new SystemStreamLog();
+
+    private File cacheFile;
+
+    @Before
+    public void setUp() {
+        final File targetDir = new File("target/testoutput");
+        targetDir.mkdirs();
+        this.cacheFile = new File(targetDir, "formatter-cache-test.bin");
+        this.cacheFile.delete();
+        journalFile().delete();
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            final long key = FormatterCache.keyOf("/src/main/java/Foo.java");
+            assertFalse(cache.isUnchanged(key, 10, 1000));
+            assertFalse(cache.hasDigest(key, digest(1)));
+
+            cache.put(key, digest(1), 10, 1000);
+            assertTrue(cache.isUnchanged(key, 10, 1000));
+            assertFalse(cache.isUnchanged(key, 11, 1000));
+            assertFalse(cache.isUnchanged(key, 10, 1001));
+            assertTrue(cache.hasDigest(key, digest(1)));
+            assertFalse(cache.hasDigest(key, digest(2)));
+
+            cache.put(key, digest(2), 10, -1);
+            assertFalse(cache.isUnchanged(key, 10, -1));
+            assertTrue(cache.hasDigest(key, digest(2)));
+            assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            for (int i = 0; i < 5000; i++) {
+                cache.put(FormatterCache.keyOf("/File" + i + ".java"), digest(i), i, i * 1000L);
+            }
+        }
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            assertEquals(5000, cache.size());
+            for (int i = 0; i < 5000; i++) {
+                final long key = FormatterCache.keyOf("/File" + i + ".java");
+                assertTrue(cache.isUnchanged(key, i, i * 1000L));
+                assertTrue(cache.hasDigest(key, digest(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testResumeFromJournal() throws Exception {
+        // an interrupted build never closes its cache
+        @SuppressWarnings("resource")
+        final FormatterCache interrupted = open(1, HashAlgorithm.MURMUR3_128);
+        for (int i = 0; i < 10; i++) {
+            interrupted.put(FormatterCache.keyOf("/File" + i + ".java"), digest(i), i, i * 1000L);
+        }
+        assertTrue(journalFile().exists());
+        Files.write(journalFile().toPath(), new byte[5], StandardOpenOption.APPEND);
+
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            assertEquals(10, cache.size());
+            for (int i = 0; i < 10; i++) {
+                assertTrue(cache.hasDigest(FormatterCache.keyOf("/File" + i + ".java"), digest(i)));
+            }
+            // a record torn by the interruption is dropped before appending
+            cache.put(FormatterCache.keyOf("/File10.java"), digest(10), 10, 10000L);
+        }
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            assertEquals(11, cache.size());
+            assertTrue(cache.hasDigest(FormatterCache.keyOf("/File10.java"), digest(10)));
+        }
+    }
+
+    @Test
+    public void testSmallCacheCompactedOnClose() throws Exception {
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            for (int i = 0; i < 10; i++) {
+                cache.put(FormatterCache.keyOf("/File" + i + ".java"), digest(i), i, i * 1000L);
+            }
+            assertFalse(this.cacheFile.exists());
+        }
+        // far fewer records than a compaction waits for while formatting, but no cache file to map yet
+        assertTrue(this.cacheFile.exists());
+        assertTrue(journalFile().length() < 100);
+        final byte[] snapshot = Files.readAllBytes(this.cacheFile.toPath());
+
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            cache.put(FormatterCache.keyOf("/File0.java"), digest(1), 0, 0L);
+        }
+        assertArrayEquals(snapshot, Files.readAllBytes(this.cacheFile.toPath()));
+
+        // the journal caught up with half of the cache file
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            for (int i = 1; i < 5; i++) {
+                cache.put(FormatterCache.keyOf("/File" + i + ".java"), digest(i + 1), i, i * 1000L);
+            }
+        }
+        assertFalse(Arrays.equals(snapshot, Files.readAllBytes(this.cacheFile.toPath())));
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            assertEquals(10, cache.size());
+            assertTrue(cache.hasDigest(FormatterCache.keyOf("/File4.java"), digest(5)));
+            assertTrue(cache.hasDigest(FormatterCache.keyOf("/File9.java"), digest(9)));
+        }
+    }
+
+    @Test
+    public void testCloseOnlyAppendsToJournal() throws Exception {
+        final int entries = FormatterCache.MIN_COMPACTION_RECORDS * 4;
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            for (int i = 0; i < entries; i++) {
+                cache.put(FormatterCache.keyOf("/File" + i + ".java"), digest(i), i, i * 1000L);
+            }
+        }
+        final byte[] snapshot = Files.readAllBytes(this.cacheFile.toPath());
+
+        // a few changes are only journaled, whatever the size of the cache
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            for (int i = 0; i < 10; i++) {
+                cache.put(FormatterCache.keyOf("/File" + i + ".java"), digest(i + 1), i, i * 1000L);
+            }
+        }
+        assertArrayEquals(snapshot, Files.readAllBytes(this.cacheFile.toPath()));
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            assertEquals(entries, cache.size());
+            assertTrue(cache.hasDigest(FormatterCache.keyOf("/File0.java"), digest(1)));
+            assertTrue(cache.hasDigest(FormatterCache.keyOf("/File10.java"), digest(10)));
+        }
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        final int entries = FormatterCache.MIN_COMPACTION_RECORDS + 10;
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            for (int i = 0; i < entries; i++) {
+                cache.put(FormatterCache.keyOf("/File" + i + ".java"), digest(i), i, i * 1000L);
+            }
+            assertTrue(this.cacheFile.exists());
+            // the journal was emptied by the checkpoint
+            assertTrue(journalFile().length() < FormatterCache.MIN_COMPACTION_RECORDS);
+        }
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            assertEquals(entries, cache.size());
+            assertTrue(cache.hasDigest(FormatterCache.keyOf("/File0.java"), digest(0)));
+            assertTrue(cache.hasDigest(FormatterCache.keyOf("/File" + (entries - 1) + ".java"), digest(entries - 1)));
+        }
+    }
+
+    @Test
+    public void testFingerprintChangeDiscardsEntries() throws Exception {
+        final long key = FormatterCache.keyOf("/src/main/java/Foo.java");
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            cache.put(key, digest(1), 10, 1000);
+        }
+        try (FormatterCache cache = open(2, HashAlgorithm.MURMUR3_128)) {
+            assertEquals(0, cache.size());
+            assertFalse(cache.hasDigest(key, digest(1)));
+        }
+    }
+
+    @Test
+    public void testAlgorithmChangeDiscardsEntries() throws Exception {
+        final long key = FormatterCache.keyOf("/src/main/java/Foo.java");
+        try (FormatterCache cache = open(1, HashAlgorithm.SHA512)) {
+            cache.put(key, new byte[HashAlgorithm.SHA512.getDigestLength()], 10, 1000);
+        }
+        try (FormatterCache cache = open(1, HashAlgorithm.MURMUR3_128)) {
+            assertEquals(0, cache.size());
+            assertFalse(cache.isUnchanged(key, 10, 1000));
+        }
+    }
+
+    private FormatterCache open(final int fingerprintSeed, final HashAlgorithm algorithm) throws IOException {
+        return FormatterCache.open(this.cacheFile, fingerprint(fingerprintSeed), algorithm, this.log);
+    }
+
+    private File journalFile() {
+        return new File(this.cacheFile.getPath() + ".journal");
+    }
+
+    private static byte[] fingerprint(final int seed) {
+        final byte[] fingerprint = new byte[64];
+        fingerprint[0] = (byte) seed;
+        return fingerprint;
+    }
+
+    private static byte[] digest(final int seed) {
+        final byte[] digest = new byte[HashAlgorithm.MURMUR3_128.getDigestLength()];
+        for (int i = 0; i < 4; i++) {
+            digest[i] = (byte) (seed >>> (i * 8));
+        }
+        return digest;
+    }
+
+}
@@ -0,0 +1,549 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.revelc.code.formatter.java.ImportOrder;
+import net.revelc.code.formatter.java.JavaFormatter;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.resource.ResourceManager;
+import org.codehaus.plexus.resource.loader.ResourceNotFoundException;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link FormatterMojo}, sorting the imports only so that no Eclipse formatter is needed.
+ */
+public class FormatterMojoTest {
+
+    private static final int FILES = 64;
+
+    private static final String CACHE_FILENAME = "maven-java-formatter-cache.bin";
+
+    private static final String SOURCE_TREE_FILENAME = "formatter-source-tree.bin";
+
+    private final Log log = new SystemStreamLog();
+
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        this.root = Paths.get("target/testoutput/mojo").toAbsolutePath();
+        FileUtils.deleteDirectory(this.root.toFile());
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws Exception {
+        writeSources();
+        final FormatterMojo sequential = execute(1, "target-sequential");
+        final Map<String, String> sequentialFiles = readSources();
+
+        writeSources();
+        final FormatterMojo parallel = execute(4, "target-parallel");
+        final Map<String, String> parallelFiles = readSources();
+
+        assertEquals(sequentialFiles, parallelFiles);
+        assertEquals("package p1;\n\nimport java.util.List;\n\nimport org.junit.Test;\n\nclass C1 {\n"
+                + "    List<Test> tests;\n}\n", parallelFiles.get("p1/C1.java"));
+
+        final byte[] fingerprint = (byte[]) get(sequential, "fingerprint");
+        assertArrayEquals(fingerprint, (byte[]) get(parallel, "fingerprint"));
+        try (FormatterCache sequentialCache = openCache(fingerprint, "target-sequential");
+                FormatterCache parallelCache = openCache(fingerprint, "target-parallel")) {
+            assertEquals(FILES, sequentialCache.size());
+            assertEquals(FILES, parallelCache.size());
+            for (final String name : parallelFiles.keySet()) {
+                final long key = keyOf(name);
+                final byte[] digest = HashAlgorithm.MURMUR3_128.hash(parallelFiles.get(name).getBytes("UTF-8"));
+                assertTrue(name, sequentialCache.hasDigest(key, digest));
+                assertTrue(name, parallelCache.hasDigest(key, digest));
+            }
+        }
+    }
+
+    @Test
+    public void testEachFileReadAndWrittenOnce() throws Exception {
+        writeSources();
+        makeSourcesOld();
+        final CountingMojo mojo = new CountingMojo();
+        configure(mojo, 4, "target").execute();
+
+        final Map<String, String> files = readSources();
+        assertEquals(FILES, mojo.reads.size());
+        for (int i = 0; i < FILES; i++) {
+            final String name = "p" + i % 4 + "/C" + i + ".java";
+            assertEquals(name, 1, mojo.reads.get(name).get());
+            if (i % 8 == 0) {
+                // already formatted, left as is
+                assertNull(name, mojo.writes.get(name));
+                assertTrue(name, mojo.untouched.contains(name));
+            } else {
+                assertEquals(name, 1, mojo.writes.get(name).get());
+            }
+            assertFalse(name, files.get(name).contains("\r\n"));
+        }
+    }
+
+    @Test
+    public void testUnchangedFilesNotRead() throws Exception {
+        writeSources();
+        makeSourcesOld();
+        final CountingMojo first = countingMojo();
+        first.execute();
+        assertEquals(FILES, first.reads.size());
+
+        // the files just written have racy timestamps, their content is checked again
+        final CountingMojo racy = countingMojo();
+        racy.execute();
+        assertEquals(FILES - FILES / 8, racy.reads.size());
+        assertFalse(racy.reads.containsKey("p0/C0.java"));
+        assertTrue(racy.reads.containsKey("p1/C1.java"));
+
+        makeSourcesOld();
+        countingMojo().execute();
+        final CountingMojo unchanged = countingMojo();
+        unchanged.execute();
+        assertEquals(0, unchanged.reads.size());
+
+        final Path src = this.root.resolve("src");
+        final FileTime time = FileTime.fromMillis(System.currentTimeMillis() - 30000);
+        Files.write(src.resolve("p1/C1.java"), "\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Files.setLastModifiedTime(src.resolve("p1/C1.java"), Files.getLastModifiedTime(src.resolve("p2/C2.java")));
+        Files.setLastModifiedTime(src.resolve("p2/C2.java"), time);
+        final CountingMojo changed = countingMojo();
+        changed.execute();
+        assertEquals(new TreeSet<>(Arrays.asList("p1/C1.java", "p2/C2.java")), new TreeSet<>(changed.reads.keySet()));
+    }
+
+    @Test
+    public void testSharedCacheKeyedBySha256() throws Exception {
+        writeSources();
+        final FormatterMojo first = newMojo(2, "target");
+        set(first, "hashAlgorithm", HashAlgorithm.FARMHASH64);
+        set(first, "sharedCacheDirectory", this.root.resolve("shared").toFile());
+        first.execute();
+        assertTrue(Files.isRegularFile(this.root.resolve("shared/formatter-cache-sha256.bin")));
+        assertFalse(Files.exists(this.root.resolve("shared/formatter-cache-farmhash64.bin")));
+
+        // another checkout of the same sources, with an empty hash cache
+        writeSources();
+        final Set<String> formatted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final CountingMojo other = new CountingMojo() {
+            @Override
+            void formatCode(final FileTask task) {
+                formatted.add(nameOf(task));
+                super.formatCode(task);
+            }
+        };
+        configure(other, 2, "other");
+        set(other, "hashAlgorithm", HashAlgorithm.FARMHASH64);
+        set(other, "sharedCacheDirectory", this.root.resolve("shared").toFile());
+        other.execute();
+        assertEquals(FILES, other.reads.size());
+        for (int i = 0; i < FILES; i++) {
+            final String name = "p" + i % 4 + "/C" + i + ".java";
+            assertEquals(name, i % 8 != 0, formatted.contains(name));
+        }
+    }
+
+    @Test
+    public void testConfigurationChangeInvalidatesCache() throws Exception {
+        writeSources();
+        final Path order = this.root.resolve("java.importorder");
+        Files.write(order, "0=java\n1=org\n".getBytes(StandardCharsets.UTF_8));
+        final FormatterMojo first = withImportOrderFile(newMojo(1, "target"));
+        first.execute();
+        assertTrue(readSources().get("p1/C1.java").contains("import java.util.List;\n\nimport org.junit.Test;"));
+
+        // the cache of the previous run would skip the files, were it not invalidated
+        Files.write(order, "0=org\n1=java\n".getBytes(StandardCharsets.UTF_8));
+        final FormatterMojo reordered = withImportOrderFile(newMojo(1, "target"));
+        reordered.execute();
+        assertTrue(readSources().get("p1/C1.java").contains("import org.junit.Test;\n\nimport java.util.List;"));
+        assertFalse(Arrays.equals((byte[]) get(first, "fingerprint"), (byte[]) get(reordered, "fingerprint")));
+
+        final FormatterMojo option = withImportOrderFile(newMojo(1, "target"));
+        set(option, "removeUnusedImports", false);
+        option.execute();
+        assertFalse(Arrays.equals((byte[]) get(reordered, "fingerprint"), (byte[]) get(option, "fingerprint")));
+    }
+
+    @Test
+    public void testImportsOnlyWithoutFormatterConfiguration() throws Exception {
+        writeSources();
+        Files.write(this.root.resolve("java.importorder"), "0=java\n1=org\n".getBytes(StandardCharsets.UTF_8));
+        final FormatterMojo missing = withImportOrderFile(newMojo(1, "target"));
+        set(missing, "configFile", "java.xml");
+        missing.execute();
+        assertTrue(readSources().get("p1/C1.java").contains("import java.util.List;\n\nimport org.junit.Test;"));
+
+        // not even parsed
+        Files.write(this.root.resolve("java.xml"), "<profiles>".getBytes(StandardCharsets.UTF_8));
+        final FormatterMojo present = withImportOrderFile(newMojo(1, "target"));
+        set(present, "configFile", "java.xml");
+        present.execute();
+        assertArrayEquals((byte[]) get(missing, "fingerprint"), (byte[]) get(present, "fingerprint"));
+        assertArrayEquals((byte[]) invoke(missing, "getSourceTreeSettings"),
+                (byte[]) invoke(present, "getSourceTreeSettings"));
+    }
+
+    @Test
+    public void testFormatterPerThread() throws Exception {
+        final FormatterMojo mojo = newMojo(4, "target");
+        set(mojo, "javaFormattingOptions", new HashMap<String, String>());
+        set(mojo, "compiledImportOrder", new ImportOrder(Arrays.asList("java", "org")));
+        @SuppressWarnings("unchecked")
+        final ThreadLocal<JavaFormatter> formatters = (ThreadLocal<JavaFormatter>) get(mojo, "javaFormatter");
+
+        final String code = "package a;\n\nimport org.junit.Test;\nimport java.util.List;\n\nclass A {\n"
+                + "    List<Test> tests;\n}\n";
+        final Set<JavaFormatter> instances = Collections.newSetFromMap(new IdentityHashMap<JavaFormatter, Boolean>());
+        final Set<String> results = Collections.synchronizedSet(new HashSet<String>());
+        final List<Thread> threads = new ArrayList<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        final JavaFormatter formatter = formatters.get();
+                        assertSame(formatter, formatters.get());
+                        synchronized (instances) {
+                            instances.add(formatter);
+                        }
+                        results.add(formatter.formatCode(code, LineEnding.LF));
+                    } catch (final Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertEquals(4, instances.size());
+        assertEquals(Collections.singleton("package a;\n\nimport java.util.List;\n\nimport org.junit.Test;\n\n"
+                + "class A {\n    List<Test> tests;\n}\n"), results);
+    }
+
+    @Test
+    public void testUnchangedSourceTreeSkipsFormatters() throws Exception {
+        writeSources();
+        execute(1, "target");
+        // the fingerprint is only recorded once the files are old enough not to change unnoticed
+        makeSourcesOld();
+        execute(1, "target");
+
+        final FormatterMojo unchanged = execute(1, "target");
+        assertNull(get(unchanged, "fingerprint"));
+
+        final Path file = this.root.resolve("src/p1/C1.java");
+        Files.write(file, "import java.util.Map;\nclass C1 {}\n".getBytes(StandardCharsets.UTF_8));
+        final FormatterMojo changed = execute(1, "target");
+        assertNotNull(get(changed, "fingerprint"));
+        assertEquals("class C1 {}\n", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFileChangedDuringRunFormattedNextRun() throws Exception {
+        writeSources();
+        final Path file = this.root.resolve("src/p1/C1.java");
+        final byte[] unformatted = Files.readAllBytes(file);
+        execute(1, "target");
+        makeSourcesOld();
+        Files.deleteIfExists(this.root.resolve("target").resolve(SOURCE_TREE_FILENAME));
+
+        // edited once read, with a modification time older than the end of the run
+        final CountingMojo editing = new CountingMojo() {
+            @Override
+            boolean readFile(final FileTask task, final ResultCollector rc) {
+                final boolean format = super.readFile(task, rc);
+                if (nameOf(task).equals("p1/C1.java")) {
+                    try {
+                        Files.write(file, unformatted);
+                        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 30000));
+                    } catch (final IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return format;
+            }
+        };
+        configure(editing, 1, "target").execute();
+        assertTrue(editing.reads.containsKey("p1/C1.java"));
+        assertTrue(Files.isRegularFile(this.root.resolve("target").resolve(SOURCE_TREE_FILENAME)));
+
+        execute(1, "target");
+        assertFalse(readSources().get("p1/C1.java").contains("\r\n"));
+    }
+
+    @Test
+    public void testChangedSinceFallsBackToFullScan() throws Exception {
+        writeSources();
+        // a repository whose HEAD points to a missing branch
+        final Path gitDir = this.root.resolve(".git");
+        Files.createDirectories(gitDir.resolve("refs/heads"));
+        Files.write(gitDir.resolve("HEAD"), "ref: refs/heads/master\n".getBytes(StandardCharsets.US_ASCII));
+
+        final FormatterMojo mojo = newMojo(1, "target");
+        set(mojo, "changedSince", "HEAD");
+        mojo.execute();
+        final Map<String, String> files = readSources();
+        assertEquals(FILES, files.size());
+        for (final Map.Entry<String, String> file : files.entrySet()) {
+            assertFalse(file.getKey(), file.getValue().contains("\r\n"));
+        }
+        assertEquals("package p1;\n\nimport java.util.List;\n\nimport org.junit.Test;\n\nclass C1 {\n"
+                + "    List<Test> tests;\n}\n", files.get("p1/C1.java"));
+    }
+
+    /**
+     * Write files with unsorted imports and unused ones, with Windows line endings, every eighth one already
+     * formatted.
+     */
+    private void writeSources() throws IOException {
+        final Path src = this.root.resolve("src");
+        FileUtils.deleteDirectory(src.toFile());
+        for (int i = 0; i < FILES; i++) {
+            final String code;
+            if (i % 8 == 0) {
+                code = "package p" + i % 4 + ";\n\nimport java.util.List;\n\nclass C" + i + " {\n"
+                        + "    List<String> names;\n}\n";
+            } else {
+                code = "package p" + i % 4 + ";\r\n\r\nimport org.junit.Test;\r\nimport java.util.Map;\r\n"
+                        + "import java.util.List;\r\n\r\nclass C" + i + " {\r\n    List<Test> tests;\r\n}\r\n";
+            }
+            final Path file = src.resolve("p" + i % 4).resolve("C" + i + ".java");
+            Files.createDirectories(file.getParent());
+            Files.write(file, code.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Counts the files read, as found in the read stage, and the files written, as modified by the write stage.
+     */
+    private class CountingMojo extends FormatterMojo {
+
+        final Map<String, AtomicInteger> reads = new ConcurrentHashMap<>();
+
+        final Map<String, AtomicInteger> writes = new ConcurrentHashMap<>();
+
+        /** The files the write stage saw but did not modify. */
+        final Set<String> untouched = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        @Override
+        boolean readFile(final FileTask task, final ResultCollector rc) {
+            final boolean format = super.readFile(task, rc);
+            if (task.content != null) {
+                count(this.reads, task);
+            }
+            return format;
+        }
+
+        @Override
+        void writeFile(final FileTask task, final ResultCollector rc)
+                throws MojoFailureException, MojoExecutionException {
+            final long before = task.file.lastModified();
+            super.writeFile(task, rc);
+            if (task.file.lastModified() != before) {
+                count(this.writes, task);
+            } else {
+                this.untouched.add(nameOf(task));
+            }
+        }
+
+        private void count(final Map<String, AtomicInteger> counts, final FileTask task) {
+            final String name = nameOf(task);
+            counts.putIfAbsent(name, new AtomicInteger());
+            counts.get(name).incrementAndGet();
+        }
+
+        String nameOf(final FileTask task) {
+            final Path src = FormatterMojoTest.this.root.resolve("src");
+            return src.relativize(task.file.toPath()).toString().replace(File.separatorChar, '/');
+        }
+    }
+
+    private void makeSourcesOld() throws IOException {
+        final FileTime time = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        Files.walkFileTree(this.root.resolve("src"), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.setLastModifiedTime(file, time);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+                Files.setLastModifiedTime(dir, time);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private Map<String, String> readSources() throws IOException {
+        final Path src = this.root.resolve("src");
+        final Map<String, String> files = new TreeMap<>();
+        for (final String name : FileUtils.getFileNames(src.toFile(), "**/*.java", null, false)) {
+            final String content = new String(Files.readAllBytes(src.resolve(name)), StandardCharsets.UTF_8);
+            files.put(name.replace(File.separatorChar, '/'), content);
+        }
+        return files;
+    }
+
+    /**
+     * @return a mojo counting the files it reads and writes, without the source tree fingerprint that would skip them
+     */
+    private CountingMojo countingMojo() throws Exception {
+        final CountingMojo mojo = new CountingMojo();
+        configure(mojo, 2, "target");
+        set(mojo, "sourceTreeFingerprint", false);
+        return mojo;
+    }
+
+    private FormatterMojo execute(final int threads, final String target) throws Exception {
+        final FormatterMojo mojo = newMojo(threads, target);
+        mojo.execute();
+        return mojo;
+    }
+
+    private FormatterMojo newMojo(final int threads, final String target) throws Exception {
+        return configure(new FormatterMojo(), threads, target);
+    }
+
+    /**
+     * Read the import order from the java.importorder file of the base directory, as the resource manager does.
+     */
+    private FormatterMojo withImportOrderFile(final FormatterMojo mojo) throws Exception {
+        set(mojo, "importOrderFile", "java.importorder");
+        set(mojo, "resourceManager", Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { ResourceManager.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args)
+                            throws Throwable {
+                        if (!method.getName().equals("getResourceAsInputStream")) {
+                            return null;
+                        }
+                        final Path file = FormatterMojoTest.this.root.resolve((String) args[0]);
+                        if (!Files.isRegularFile(file)) {
+                            throw new ResourceNotFoundException((String) args[0]);
+                        }
+                        return Files.newInputStream(file);
+                    }
+                }));
+        return mojo;
+    }
+
+    private FormatterMojo configure(final FormatterMojo mojo, final int threads, final String target)
+            throws Exception {
+        set(mojo, "basedir", this.root.toFile());
+        set(mojo, "targetDirectory", this.root.resolve(target).toFile());
+        set(mojo, "directories", new File[] { this.root.resolve("src").toFile() });
+        set(mojo, "encoding", "UTF-8");
+        set(mojo, "lineEnding", LineEnding.LF);
+        set(mojo, "skipFormatting", Boolean.FALSE);
+        set(mojo, "importsOnly", true);
+        set(mojo, "removeUnusedImports", true);
+        set(mojo, "threads", threads);
+        set(mojo, "hashAlgorithm", HashAlgorithm.MURMUR3_128);
+        set(mojo, "sourceTreeFingerprint", true);
+        set(mojo, "compilerSource", "1.8");
+        set(mojo, "compilerCompliance", "1.8");
+        set(mojo, "compilerTargetPlatform", "1.8");
+        set(mojo, "pluginVersion", "test");
+        return mojo;
+    }
+
+    private FormatterCache openCache(final byte[] fingerprint, final String target) throws IOException {
+        final File file = this.root.resolve(target).resolve(CACHE_FILENAME).toFile();
+        return FormatterCache.open(file, fingerprint, HashAlgorithm.MURMUR3_128, this.log);
+    }
+
+    /**
+     * @return the key of a source file, its path relative to the base directory
+     */
+    private long keyOf(final String name) throws IOException {
+        final String path = this.root.resolve("src").resolve(name).toRealPath().toString();
+        return FormatterCache.keyOf(path.substring(this.root.toRealPath().toString().length()));
+    }
+
+    private static void set(final FormatterMojo mojo, final String name, final Object value) throws Exception {
+        final Field field = FormatterMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+
+    private static Object get(final FormatterMojo mojo, final String name) throws Exception {
+        final Field field = FormatterMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(mojo);
+    }
+
+    private static Object invoke(final FormatterMojo mojo, final String name) throws Exception {
+        final Method method = FormatterMojo.class.getDeclaredMethod(name);
+        method.setAccessible(true);
+        return method.invoke(mojo);
+    }
+
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.junit.Test;
+
+/**
+ * Test class for {@link FormatterPipeline}.
+ */
+public class FormatterPipelineTest {
+
+    @Test
+    public void testAllFilesGoThroughTheStages() throws Exception {
+        final TestPipeline pipeline = new TestPipeline(3, 200);
+        pipeline.run();
+
+        assertEquals(1, pipeline.starts.get());
+        assertEquals(200, pipeline.getSubmitted());
+        assertEquals(200, pipeline.read.size());
+        // the files read as already formatted skip the other stages
+        final Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 200; i += 2) {
+            expected.add("File" + i);
+        }
+        assertEquals(expected, pipeline.formatted);
+        assertEquals(expected, pipeline.written);
+    }
+
+    @Test
+    public void testFilesInFlightBounded() throws Exception {
+        final int threads = 2;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final TestPipeline pipeline = new TestPipeline(threads, 500) {
+            @Override
+            protected boolean read(final FileTask task) throws Exception {
+                final int count = inFlight.incrementAndGet();
+                for (int max = maxInFlight.get(); count > max && !maxInFlight.compareAndSet(max, count);) {
+                    max = maxInFlight.get();
+                }
+                super.read(task);
+                return true;
+            }
+
+            @Override
+            protected void write(final FileTask task) throws Exception {
+                // the slowest stage, the others fill their queues
+                Thread.sleep(1);
+                super.write(task);
+                inFlight.decrementAndGet();
+            }
+        };
+        pipeline.run();
+
+        assertEquals(500, pipeline.written.size());
+        // the files in the format and write queues, plus the ones held by the threads of each stage
+        assertTrue(String.valueOf(maxInFlight.get()), maxInFlight.get() <= 2 * 4 * threads + 2 * threads + 1);
+    }
+
+    @Test
+    public void testNoFiles() throws Exception {
+        final TestPipeline pipeline = new TestPipeline(2, 0);
+        pipeline.run();
+        assertEquals(0, pipeline.starts.get());
+        assertEquals(0, pipeline.getSubmitted());
+    }
+
+    @Test
+    public void testFailureInMiddleStage() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("File42");
+        final TestPipeline pipeline = new TestPipeline(4, 10000) {
+            @Override
+            protected void format(final FileTask task) throws Exception {
+                if (task.file.getName().equals("File42")) {
+                    throw failure;
+                }
+                super.format(task);
+            }
+        };
+        try {
+            pipeline.run();
+            fail("the failure is passed on");
+        } catch (final MojoExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        // the other stages stopped early
+        assertTrue(pipeline.written.size() < 10000);
+    }
+
+    @Test
+    public void testMojoFailurePassedAsIs() throws Exception {
+        final MojoFailureException failure = new MojoFailureException("File7");
+        final TestPipeline pipeline = new TestPipeline(2, 100) {
+            @Override
+            protected void write(final FileTask task) throws Exception {
+                if (task.file.getName().equals("File8")) {
+                    throw failure;
+                }
+                super.write(task);
+            }
+        };
+        try {
+            pipeline.run();
+            fail("the failure is passed on");
+        } catch (final MojoFailureException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testFullQueue() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger attempts = new AtomicInteger();
+        final TestPipeline pipeline = new TestPipeline(1, 0) {
+            @Override
+            protected void discover() throws Exception {
+                for (int i = 0; i < 50; i++) {
+                    attempts.incrementAndGet();
+                    submit(new File("File" + i));
+                }
+            }
+
+            @Override
+            protected boolean read(final FileTask task) throws Exception {
+                release.await();
+                return super.read(task);
+            }
+        };
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread runner = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    pipeline.run();
+                } catch (final Throwable t) {
+                    failure.set(t);
+                }
+            }
+        };
+        runner.start();
+
+        // one file held by the blocked reader, the queue full and the next submission waiting for room
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (attempts.get() < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(6, attempts.get());
+        final CountDownLatch locked = new CountDownLatch(1);
+        final Thread locker = new Thread() {
+            @Override
+            public void run() {
+                synchronized (pipeline) {
+                    locked.countDown();
+                }
+            }
+        };
+        locker.start();
+        assertTrue("submit does not hold the lock while waiting", locked.await(10, TimeUnit.SECONDS));
+
+        release.countDown();
+        runner.join(10000);
+        assertNull(failure.get());
+        assertEquals(50, pipeline.read.size());
+        assertEquals(25, pipeline.written.size());
+    }
+
+    /**
+     * Passes the even files on to the formatting and writing stages, recording which files went through each stage.
+     */
+    private static class TestPipeline extends FormatterPipeline {
+
+        final int files;
+
+        final AtomicInteger starts = new AtomicInteger();
+
+        final Set<String> read = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        final Set<String> formatted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        final Set<String> written = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        TestPipeline(final int threads, final int files) {
+            super(threads);
+            this.files = files;
+        }
+
+        @Override
+        protected void discover() throws Exception {
+            for (int i = 0; i < this.files; i++) {
+                submit(new File("File" + i));
+            }
+        }
+
+        @Override
+        protected void start() throws Exception {
+            this.starts.incrementAndGet();
+        }
+
+        @Override
+        protected boolean read(final FileTask task) throws Exception {
+            assertEquals(1, this.starts.get());
+            this.read.add(task.file.getName());
+            return Integer.parseInt(task.file.getName().substring("File".length())) % 2 == 0;
+        }
+
+        @Override
+        protected void format(final FileTask task) throws Exception {
+            this.formatted.add(task.file.getName());
+        }
+
+        @Override
+        protected void write(final FileTask task) throws Exception {
+            assertTrue(this.formatted.contains(task.file.getName()));
+            this.written.add(task.file.getName());
+        }
+    }
+
+}
@@ -16,6 +16,9 @@
  */
 package net.revelc.code.formatter;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -107,4 +110,89 @@ public class LineEndingTest {
         Assert.assertEquals(LineEnding.UNKNOW, lineEnd);
     }
 
+    /**
+     * Test successfully replacing LF line endings with CRLF.
+     */
+    @Test
+    public void test_success_replace_line_endings_lf_to_crlf() throws Exception {
+        String fileData = "Test\nTest\nTest\n";
+        String replaced = LineEnding.CRLF.replaceLineEndings(fileData);
+        Assert.assertEquals("Test\r\nTest\r\nTest\r\n", replaced);
+    }
+
+    /**
+     * Test successfully replacing CRLF line endings with LF.
+     */
+    @Test
+    public void test_success_replace_line_endings_crlf_to_lf() throws Exception {
+        String fileData = "Test\r\nTest\r\nTest\r\n";
+        String replaced = LineEnding.LF.replaceLineEndings(fileData);
+        Assert.assertEquals("Test\nTest\nTest\n", replaced);
+    }
+
+    /**
+     * Test successfully replacing the most occurring line ending when it is not the first one found.
+     */
+    @Test
+    public void test_success_replace_line_endings_mixed() throws Exception {
+        String fileData = "Test\rTest\r\nTest\nTest\nTest\r\nTest\n";
+        String replaced = LineEnding.CR.replaceLineEndings(fileData);
+        Assert.assertEquals(fileData.replace("\n", "\r"), replaced);
+    }
+
+    /**
+     * Test successfully replacing the LF of the other CRLF line endings, as {@link String#replace} does.
+     */
+    @Test
+    public void test_success_replace_line_endings_lf_in_crlf() throws Exception {
+        String fileData = "Test\nTest\r\nTest\nTest\n";
+        String replaced = LineEnding.CRLF.replaceLineEndings(fileData);
+        Assert.assertEquals(fileData.replace("\n", "\r\n"), replaced);
+    }
+
+    /**
+     * Test successfully keeping line endings already matching.
+     */
+    @Test
+    public void test_success_replace_line_endings_unchanged() throws Exception {
+        Assert.assertNull(LineEnding.LF.replaceLineEndings("Test\nTest\r\nTest\n"));
+        Assert.assertNull(LineEnding.CRLF.replaceLineEndings("Test\r\nTest\r\nTest\n"));
+        Assert.assertNull(LineEnding.LF.replaceLineEndings("Test\r\nTest\nTest\r"));
+        Assert.assertNull(LineEnding.LF.replaceLineEndings("TestTestTestTest"));
+        Assert.assertNull(LineEnding.KEEP.replaceLineEndings("Test\r\nTest\r\nTest\r\n"));
+        // no character of the other line endings
+        Assert.assertNull(LineEnding.LF.replaceLineEndings("Test\nTest\nTest\n"));
+        Assert.assertNull(LineEnding.CR.replaceLineEndings("Test\rTest\rTest\r"));
+        Assert.assertNull(LineEnding.LF.replaceLineEndings(ByteBuffer.wrap("Test\nTest\n".getBytes(
+                StandardCharsets.US_ASCII))));
+        Assert.assertNull(LineEnding.CR.replaceLineEndings(ByteBuffer.wrap("Test\rTest\r".getBytes(
+                StandardCharsets.US_ASCII))));
+        // only the last line ending is another one
+        Assert.assertEquals("Test\rTest\rTest\r", LineEnding.CR.replaceLineEndings("Test\nTest\nTest\r"));
+        Assert.assertEquals("Test\nTest\nTest\n", LineEnding.LF.replaceLineEndings("Test\rTest\rTest\n"));
+    }
+
+    /**
+     * Test successfully replacing CRLF line endings with LF without decoding the text.
+     */
+    @Test
+    public void test_success_replace_line_endings_bytes() throws Exception {
+        String fileData = "T\u00e9st\r\nTest\nTest\r\n";
+        byte[] content = fileData.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer replaced = LineEnding.LF.replaceLineEndings(ByteBuffer.wrap(content));
+        Assert.assertEquals("T\u00e9st\nTest\nTest\n", StandardCharsets.UTF_8.decode(replaced).toString());
+        Assert.assertNull(LineEnding.CRLF.replaceLineEndings(ByteBuffer.wrap(content)));
+    }
+
+    /**
+     * Test successfully determining the charsets whose line endings can be replaced without decoding the text.
+     */
+    @Test
+    public void test_success_ascii_compatible_charsets() throws Exception {
+        Assert.assertTrue(LineEnding.isAsciiCompatible(StandardCharsets.UTF_8));
+        Assert.assertTrue(LineEnding.isAsciiCompatible(StandardCharsets.ISO_8859_1));
+        Assert.assertFalse(LineEnding.isAsciiCompatible(StandardCharsets.UTF_16));
+        Assert.assertFalse(LineEnding.isAsciiCompatible(StandardCharsets.UTF_16LE));
+    }
+
 }
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+/**
+ * Test class for {@link SharedFormatterCache}.
+ */
+public class SharedFormatterCacheTest {
+
+    @Test
+    public void testPutAndSync() throws Exception {
+        final File directory = new File("target/testoutput/shared-cache");
+        final File file = new File(directory, "formatter-cache-sha256.bin");
+        file.delete();
+
+        final SharedFormatterCache cache = SharedFormatterCache.open(directory, new SystemStreamLog());
+        final byte[] digest = HashAlgorithm.SHA256.hash(new byte[] { 1, 2, 3 });
+        final byte[] formattedDigest = HashAlgorithm.SHA256.hash(new byte[] { 4, 5, 6 });
+        final byte[] javaKey = cache.keyOf(new byte[] { 7 }, "java", digest);
+        final byte[] jsKey = cache.keyOf(new byte[] { 7 }, "js", digest);
+        assertFalse(Arrays.equals(javaKey, jsKey));
+        assertFalse(Arrays.equals(javaKey, cache.keyOf(new byte[] { 8 }, "java", digest)));
+
+        cache.put(javaKey, formattedDigest);
+        cache.put(jsKey, digest);
+        cache.sync();
+        assertEquals(24 + 2 * 2 * 32, file.length());
+
+        // recording the same result again appends nothing
+        cache.put(javaKey, formattedDigest);
+        cache.sync();
+        assertEquals(24 + 2 * 2 * 32, file.length());
+
+        final SharedFormatterCache reopened = SharedFormatterCache.open(directory, new SystemStreamLog());
+        assertArrayEquals(formattedDigest, reopened.get(javaKey));
+        assertArrayEquals(digest, reopened.get(jsKey));
+        assertNull(reopened.get(digest));
+    }
+
+    @Test
+    public void testSizeBound() throws Exception {
+        final File directory = new File("target/testoutput/shared-cache-bounded");
+        final File file = new File(directory, "formatter-cache-sha256.bin");
+        file.delete();
+
+        // room for 100 records, the rewrites keep the 50 most recent ones
+        final long maxSize = 24 + 100 * 2 * 32;
+        final SharedFormatterCache cache = SharedFormatterCache.open(directory, maxSize, new SystemStreamLog());
+        for (int i = 0; i < 300; i++) {
+            cache.put(digest(i), digest(-i));
+            if (i % 10 == 9) {
+                cache.sync();
+                assertTrue(file.length() <= maxSize);
+            }
+        }
+        for (int i = 250; i < 300; i++) {
+            assertArrayEquals(digest(-i), cache.get(digest(i)));
+        }
+        assertNull(cache.get(digest(0)));
+        assertNull(cache.get(digest(199)));
+    }
+
+    private static byte[] digest(final int seed) {
+        return HashAlgorithm.SHA256.hash(new byte[] { (byte) seed, (byte) (seed >>> 8) });
+    }
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link SourceScanner}.
+ */
+public class SourceScannerTest {
+
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        this.root = Paths.get("target/testoutput/scanner").toAbsolutePath();
+        FileUtils.deleteDirectory(this.root.toFile());
+        for (final String file : Arrays.asList("Foo.java", "a/Bar.java", "a/b/Baz.JAVA", "a/b/baz.js", "c/Qux.java",
+                ".git/Head.java", "target/Gen.java")) {
+            final Path path = this.root.resolve(file);
+            Files.createDirectories(path.getParent());
+            Files.write(path, new byte[0]);
+        }
+    }
+
+    @Test
+    public void testIncludesAndExcludes() throws Exception {
+        assertEquals(set("Foo.java", "a/Bar.java", "a/b/Baz.JAVA", "c/Qux.java", "target/Gen.java"),
+                scan(new String[] { "**/*.java" }, null));
+        assertEquals(set("a/Bar.java", "a/b/Baz.JAVA", "a/b/baz.js"), scan(new String[] { "a/" }, null));
+        assertEquals(set("Foo.java", "c/Qux.java"),
+                scan(new String[] { "**/*.java" }, new String[] { "a/**", "target\\" }));
+        assertEquals(set("a/Bar.java", "c/Qux.java"), scan(new String[] { "?/*.java" }, null));
+    }
+
+    @Test
+    public void testPatterns() {
+        assertTrue(SourceScanner.compile("**/*.java").matcher("Foo.java").matches());
+        assertTrue(SourceScanner.compile("**/*.java").matcher("a/b/Foo.JAVA").matches());
+        assertTrue(SourceScanner.compile("a/**").matcher("a").matches());
+        assertTrue(SourceScanner.compile("a/**/b").matcher("a/b").matches());
+        assertTrue(SourceScanner.compile("a/**/b").matcher("a/x/y/b").matches());
+        assertFalse(SourceScanner.compile("a/*.java").matcher("a/b/Foo.java").matches());
+        assertFalse(SourceScanner.compile("a.java").matcher("a_java").matches());
+    }
+
+    @Test
+    public void testConcurrentRoots() throws Exception {
+        final List<Path> roots = Arrays.asList(this.root.resolve("c"), this.root.resolve("a"));
+        final List<Path> files = Collections.synchronizedList(new ArrayList<Path>());
+        final int count = new SourceScanner(new String[] { "**/*.java" }, null).scan(roots, 2, collect(files));
+        assertEquals(3, count);
+        assertEquals(set(this.root.resolve("c/Qux.java"), this.root.resolve("a/Bar.java"),
+                this.root.resolve("a/b/Baz.JAVA")), new TreeSet<>(files));
+    }
+
+    @Test
+    public void testOverlappingRoots() throws Exception {
+        final SourceScanner scanner = new SourceScanner(new String[] { "**/*.java" }, null);
+        final List<Path> files = new ArrayList<>();
+        final int count = scanner.scan(Arrays.asList(this.root.resolve("a"), this.root), 2, collect(files));
+        assertEquals(5, count);
+        assertEquals(5, new TreeSet<>(files).size());
+        assertEquals(2, scanner.getDuplicates());
+        // in the order of the roots
+        assertEquals(set(this.root.resolve("a/Bar.java"), this.root.resolve("a/b/Baz.JAVA")),
+                new TreeSet<>(files.subList(0, 2)));
+    }
+
+    @Test
+    public void testDuplicatedRoots() throws Exception {
+        final List<Path> roots = new ArrayList<>(Arrays.asList(this.root.resolve("c"), this.root.resolve("a"),
+                this.root.resolve("a")));
+        try {
+            // as the mojo resolves the source directories, a linked one is its target
+            roots.add(Files.createSymbolicLink(this.root.resolve("link"), this.root.resolve("a")).toRealPath());
+        } catch (final UnsupportedOperationException | IOException e) {
+            // no symbolic links on this file system
+        }
+        for (final int threads : new int[] { 1, 2 }) {
+            final SourceScanner scanner = new SourceScanner(new String[] { "**/*.java" }, null);
+            final List<Path> files = Collections.synchronizedList(new ArrayList<Path>());
+            assertEquals(3, scanner.scan(roots, threads, collect(files)));
+            assertEquals(3, files.size());
+            assertEquals(set(this.root.resolve("c/Qux.java"), this.root.resolve("a/Bar.java"),
+                    this.root.resolve("a/b/Baz.JAVA")), new TreeSet<>(files));
+            assertEquals(2 * (roots.size() - 2), scanner.getDuplicates());
+        }
+    }
+
+    @Test
+    public void testLinkedFiles() throws Exception {
+        try {
+            Files.createSymbolicLink(this.root.resolve("c/Link.java"), this.root.resolve("a/Bar.java"));
+        } catch (final UnsupportedOperationException | IOException e) {
+            // no symbolic links on this file system
+            return;
+        }
+        for (final int threads : new int[] { 1, 2 }) {
+            final SourceScanner scanner = new SourceScanner(new String[] { "**/*.java" }, null);
+            final List<Path> files = Collections.synchronizedList(new ArrayList<Path>());
+            final int count = scanner.scan(Arrays.asList(this.root.resolve("c"), this.root.resolve("a")), threads,
+                    collect(files));
+            assertEquals(3, count);
+            assertEquals(1, scanner.getDuplicates());
+            assertTrue(files.contains(this.root.resolve("c/Qux.java")));
+            assertTrue(files.contains(this.root.resolve("a/b/Baz.JAVA")));
+        }
+    }
+
+    private Set<String> scan(final String[] includes, final String[] excludes) throws Exception {
+        final Set<String> files = new TreeSet<>();
+        for (final Path file : new SourceScanner(includes, excludes).scan(this.root)) {
+            files.add(this.root.relativize(file).toString().replace('\\', '/'));
+        }
+        return files;
+    }
+
+    private static SourceScanner.Visitor collect(final List<Path> files) {
+        return new SourceScanner.Visitor() {
+            @Override
+            public void visitFile(final Path file, final BasicFileAttributes attrs) {
+                files.add(file);
+            }
+        };
+    }
+
+    @SafeVarargs
+    private static <T> Set<T> set(final T... elements) {
+        return new TreeSet<>(Arrays.asList(elements));
+    }
+
+}
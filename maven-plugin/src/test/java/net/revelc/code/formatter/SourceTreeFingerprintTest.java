@@ -0,0 +1,162 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link SourceTreeFingerprint}.
+ */
+public class SourceTreeFingerprintTest {
+
+    private static final byte[] SETTINGS = { 1, 2, 3 };
+
+    private final Log log = new SystemStreamLog();
+
+    private final SourceScanner scanner = new SourceScanner(new String[] { "**/*.java" }, null);
+
+    private Path root;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.root = Paths.get("target/testoutput/tree").toAbsolutePath();
+        FileUtils.deleteDirectory(this.root.toFile());
+        for (final String name : Arrays.asList("Foo.java", "a/Bar.java", "b/Baz.java")) {
+            write(name, "class " + name.hashCode() + " {}");
+        }
+        for (final String name : Arrays.asList("a", "b", "")) {
+            age(this.root.resolve(name));
+        }
+        this.file = new File("target/testoutput/formatter-source-tree-test.bin");
+        this.file.delete();
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        final SourceTreeFingerprint tree = compute();
+        assertEquals(3, tree.getFileCount());
+        assertFalse(tree.isRacy());
+        assertNull(SourceTreeFingerprint.read(this.file, this.log));
+        tree.write(this.file, SETTINGS);
+
+        final SourceTreeFingerprint previous = SourceTreeFingerprint.read(this.file, this.log);
+        assertTrue(compute().matches(previous, SETTINGS));
+        assertFalse(compute().matches(previous, new byte[] { 4 }));
+        assertEquals(Collections.emptySet(), compute().getUnchangedDirectories(previous, new byte[] { 4 }));
+    }
+
+    @Test
+    public void testChanged() throws Exception {
+        compute().write(this.file, SETTINGS);
+
+        write("b/Baz.java", "class Baz { }");
+        final SourceTreeFingerprint tree = compute();
+        final SourceTreeFingerprint previous = SourceTreeFingerprint.read(this.file, this.log);
+        assertFalse(tree.matches(previous, SETTINGS));
+        final Set<Path> unchanged = tree.getUnchangedDirectories(previous, SETTINGS);
+        assertEquals(Collections.singleton(this.root.resolve("a")), unchanged);
+    }
+
+    @Test
+    public void testRacy() throws Exception {
+        Files.write(this.root.resolve("a/Bar.java"), "class Bar {}".getBytes("UTF-8"));
+        assertTrue(compute().isRacy());
+    }
+
+    @Test
+    public void testRacyBeforeStart() throws Exception {
+        final Path file = this.root.resolve("a/Bar.java");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 10000));
+        assertFalse(compute().isRacy());
+        // a run started long ago may have read the file before this modification
+        assertTrue(compute(System.currentTimeMillis() - 9000).isRacy());
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        final SourceTreeFingerprint tree = compute();
+
+        // written by the run, and by another process
+        write("a/Bar.java", "class Bar { }");
+        write("b/Baz.java", "class Baz { }");
+        final Path bar = this.root.resolve("a/Bar.java");
+        tree.update(bar, Files.size(bar), Files.getLastModifiedTime(bar).toMillis());
+        assertFalse(tree.isRacy());
+        tree.write(this.file, SETTINGS);
+
+        final SourceTreeFingerprint previous = SourceTreeFingerprint.read(this.file, this.log);
+        assertFalse(compute().matches(previous, SETTINGS));
+        assertEquals(Collections.singleton(this.root.resolve("a")),
+                compute().getUnchangedDirectories(previous, SETTINGS));
+
+        final Path baz = this.root.resolve("b/Baz.java");
+        tree.update(baz, Files.size(baz), Files.getLastModifiedTime(baz).toMillis());
+        tree.write(this.file, SETTINGS);
+        assertTrue(compute().matches(SourceTreeFingerprint.read(this.file, this.log), SETTINGS));
+
+        // a file just written could still change unnoticed
+        tree.update(baz, Files.size(baz), System.currentTimeMillis());
+        assertTrue(tree.isRacy());
+    }
+
+    private SourceTreeFingerprint compute() throws Exception {
+        return compute(System.currentTimeMillis());
+    }
+
+    private SourceTreeFingerprint compute(final long startTime) throws Exception {
+        final List<Path> roots = Collections.singletonList(this.root);
+        return SourceTreeFingerprint.compute(this.scanner, roots, startTime);
+    }
+
+    private void write(final String name, final String content) throws IOException {
+        final Path path = this.root.resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes("UTF-8"));
+        age(path);
+    }
+
+    /**
+     * Set the modification time in the past, as it is when the files are not being edited.
+     */
+    private static void age(final Path path) throws IOException {
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+    }
+
+}
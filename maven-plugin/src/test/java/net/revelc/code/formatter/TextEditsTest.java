@@ -0,0 +1,59 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.eclipse.text.edits.DeleteEdit;
+import org.eclipse.text.edits.InsertEdit;
+import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.ReplaceEdit;
+import org.junit.Test;
+
+/**
+ * Test class for {@link TextEdits}.
+ */
+public class TextEditsTest {
+
+    @Test
+    public void testApply() throws Exception {
+        final String code = "class A{int a;}";
+        final MultiTextEdit edit = new MultiTextEdit();
+        edit.addChild(new InsertEdit(0, "public "));
+        edit.addChild(new ReplaceEdit(7, 0, " "));
+        edit.addChild(new ReplaceEdit(8, 0, "\n    "));
+        final MultiTextEdit nested = new MultiTextEdit();
+        nested.addChild(new DeleteEdit(13, 1));
+        nested.addChild(new InsertEdit(14, "\n"));
+        edit.addChild(nested);
+        assertEquals("public class A {\n    int a\n}", TextEdits.apply(code, edit));
+    }
+
+    @Test
+    public void testApplyNoEdit() throws Exception {
+        final String code = "class A {\n}";
+        assertSame(code, TextEdits.apply(code, new MultiTextEdit()));
+
+        final MultiTextEdit edit = new MultiTextEdit();
+        edit.addChild(new ReplaceEdit(7, 1, " "));
+        edit.addChild(new ReplaceEdit(9, 1, "\n"));
+        assertSame(code, TextEdits.apply(code, edit));
+    }
+
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link ChangedFiles}, on a repository made of loose objects written by the test.
+ */
+public class ChangedFilesTest {
+
+    private Path workTree;
+
+    private Path gitDir;
+
+    @Before
+    public void setUp() throws Exception {
+        this.workTree = Paths.get("target/testoutput/git").toAbsolutePath();
+        FileUtils.deleteDirectory(this.workTree.toFile());
+        this.gitDir = this.workTree.resolve(".git");
+        Files.createDirectories(this.gitDir.resolve("refs/heads"));
+        Files.write(this.gitDir.resolve("HEAD"), "ref: refs/heads/master\n".getBytes(StandardCharsets.US_ASCII));
+
+        // the first commit holds Foo.java, the second one also a/Bar.java
+        final String foo = writeFile("Foo.java", "class Foo {}\n");
+        final String first = writeCommit(writeTree("100644 Foo.java", foo), null);
+        final String bar = writeFile("a/Bar.java", "class Bar {}\n");
+        final String a = writeTree("100644 Bar.java", bar);
+        final String second = writeCommit(writeTree("100644 Foo.java", foo, "40000 a", a), first);
+        Files.write(this.gitDir.resolve("refs/heads/master"), (second + "\n").getBytes(StandardCharsets.US_ASCII));
+        Files.write(this.gitDir.resolve("refs/heads/first"), (first + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        final ChangedFiles changed = ChangedFiles.since(this.workTree.toFile(), "HEAD");
+        assertFalse(isChanged(changed, "Foo.java"));
+        assertFalse(isChanged(changed, "a/Bar.java"));
+    }
+
+    @Test
+    public void testChanged() throws Exception {
+        writeFile("a/Bar.java", "class Bar { }\n");
+        writeFile("a/Baz.java", "class Baz {}\n");
+        final ChangedFiles changed = ChangedFiles.since(this.workTree.toFile(), "master");
+        assertFalse(isChanged(changed, "Foo.java"));
+        assertTrue(isChanged(changed, "a/Bar.java"));
+        assertTrue(isChanged(changed, "a/Baz.java"));
+    }
+
+    @Test
+    public void testAncestry() throws Exception {
+        for (final String revision : new String[] { "HEAD~1", "HEAD^", "master~", "first", "refs/heads/first" }) {
+            final ChangedFiles changed = ChangedFiles.since(this.workTree.toFile(), revision);
+            assertFalse(revision, isChanged(changed, "Foo.java"));
+            assertTrue(revision, isChanged(changed, "a/Bar.java"));
+        }
+    }
+
+    @Test
+    public void testPackedRefs() throws Exception {
+        final String first = readRef("refs/heads/first");
+        final String second = readRef("refs/heads/master");
+        Files.delete(this.gitDir.resolve("refs/heads/first"));
+        // a packed reference is shadowed by a loose one
+        final String packedRefs = "# pack-refs with: peeled fully-peeled sorted \n" + first + " refs/heads/first\n"
+                + first + " refs/heads/master\n" + second + " refs/tags/v1\n^" + second + "\n";
+        Files.write(this.gitDir.resolve("packed-refs"), packedRefs.getBytes(StandardCharsets.US_ASCII));
+
+        for (final String revision : new String[] { "first", "refs/heads/first", "master~1" }) {
+            final ChangedFiles changed = ChangedFiles.since(this.workTree.toFile(), revision);
+            assertTrue(revision, isChanged(changed, "a/Bar.java"));
+        }
+        for (final String revision : new String[] { "v1", "tags/v1", "master" }) {
+            final ChangedFiles changed = ChangedFiles.since(this.workTree.toFile(), revision);
+            assertFalse(revision, isChanged(changed, "a/Bar.java"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownRevision() throws Exception {
+        ChangedFiles.since(this.workTree.toFile(), "HEAD~2");
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidRevision() throws Exception {
+        ChangedFiles.since(this.workTree.toFile(), "HEAD~99999999999");
+    }
+
+    @Test
+    public void testCorruptTree() throws Exception {
+        final byte[] entry = "100644 Foo.java\0".getBytes(StandardCharsets.UTF_8);
+        for (final byte[] tree : new byte[][] { Arrays.copyOf(entry, 10), Arrays.copyOf(entry, entry.length + 5),
+                "10x644 Foo.java\0".getBytes(StandardCharsets.UTF_8) }) {
+            final String commit = writeCommit(writeObject("tree", tree), null);
+            try {
+                ChangedFiles.since(this.workTree.toFile(), commit);
+                fail("Corrupt tree read");
+            } catch (final IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt tree"));
+            }
+        }
+    }
+
+    private String readRef(final String name) throws IOException {
+        return new String(Files.readAllBytes(this.gitDir.resolve(name)), StandardCharsets.US_ASCII).trim();
+    }
+
+    private boolean isChanged(final ChangedFiles changed, final String name) throws IOException {
+        final Path file = this.workTree.resolve(name).toRealPath();
+        return changed.isChanged(file, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    private String writeFile(final String name, final String content) throws Exception {
+        final Path path = this.workTree.resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return writeObject("blob", content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param entries the mode and name of each entry, followed by its object id
+     */
+    private String writeTree(final String... entries) throws Exception {
+        final ByteArrayOutputStream tree = new ByteArrayOutputStream();
+        for (int i = 0; i < entries.length; i += 2) {
+            tree.write((entries[i] + '\0').getBytes(StandardCharsets.UTF_8));
+            tree.write(toBytes(entries[i + 1]));
+        }
+        return writeObject("tree", tree.toByteArray());
+    }
+
+    private static byte[] toBytes(final String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private String writeCommit(final String tree, final String parent) throws Exception {
+        final String commit = "tree " + tree + "\n" + (parent == null ? "" : "parent " + parent + "\n")
+                + "author A <a@b> 0 +0000\ncommitter A <a@b> 0 +0000\n\nmessage\n";
+        return writeObject("commit", commit.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String writeObject(final String type, final byte[] content) throws Exception {
+        final ByteArrayOutputStream object = new ByteArrayOutputStream();
+        object.write((type + " " + content.length + "\0").getBytes(StandardCharsets.US_ASCII));
+        object.write(content);
+        final String id = ObjectId.fromBytes(MessageDigest.getInstance("SHA-1").digest(object.toByteArray()), 0)
+                .toString();
+        final Path file = this.gitDir.resolve("objects").resolve(id.substring(0, 2)).resolve(id.substring(2));
+        Files.createDirectories(file.getParent());
+        try (OutputStream out = new DeflaterOutputStream(Files.newOutputStream(file))) {
+            object.writeTo(out);
+        }
+        return id;
+    }
+
+}
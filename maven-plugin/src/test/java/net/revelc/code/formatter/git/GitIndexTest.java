@@ -0,0 +1,227 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link GitIndex}, on index files written by the test.
+ */
+public class GitIndexTest {
+
+    private static final ObjectId FOO = ObjectId.fromHex("1111111111111111111111111111111111111111");
+
+    private static final ObjectId BAR = ObjectId.fromHex("2222222222222222222222222222222222222222");
+
+    private static final ObjectId BAZ = ObjectId.fromHex("3333333333333333333333333333333333333333");
+
+    private static final int EXTENDED_FLAG = 0x4000;
+
+    private Path directory;
+
+    private Path indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Paths.get("target/testoutput/git-index").toAbsolutePath();
+        FileUtils.deleteDirectory(this.directory.toFile());
+        Files.createDirectories(this.directory);
+        this.indexFile = this.directory.resolve("index");
+    }
+
+    @Test
+    public void testVersions() throws Exception {
+        for (int version = 2; version <= 4; version++) {
+            final IndexWriter writer = new IndexWriter(version);
+            writer.add("Foo.java", FOO, 0, 0, 0, 0);
+            // an extended entry, e.g. skip-worktree, only known from version 3
+            writer.add("a/Bar.java", BAR, 0, 0, 0, version >= 3 ? EXTENDED_FLAG : 0);
+            writer.add("a/Baz.java", BAZ, 0, 0, 0, 0);
+            writer.write();
+
+            final GitIndex index = GitIndex.read(this.indexFile);
+            assertEquals("version " + version, FOO, index.get("Foo.java").id);
+            assertEquals("version " + version, BAR, index.get("a/Bar.java").id);
+            assertEquals("version " + version, BAZ, index.get("a/Baz.java").id);
+            assertNull("version " + version, index.get("a/Qux.java"));
+        }
+    }
+
+    @Test
+    public void testConflicts() throws Exception {
+        final IndexWriter writer = new IndexWriter(2);
+        writer.add("Foo.java", FOO, 0, 0, 0, 0);
+        for (int stage = 1; stage <= 3; stage++) {
+            writer.add("a/Bar.java", BAR, 0, 0, 0, stage << 12);
+        }
+        writer.write();
+
+        final GitIndex index = GitIndex.read(this.indexFile);
+        assertEquals(FOO, index.get("Foo.java").id);
+        assertNull(index.get("a/Bar.java"));
+    }
+
+    @Test
+    public void testMissing() throws Exception {
+        assertNull(GitIndex.read(this.indexFile).get("Foo.java"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedVersion() throws Exception {
+        new IndexWriter(5).write();
+        GitIndex.read(this.indexFile);
+    }
+
+    @Test
+    public void testUpToDate() throws Exception {
+        final Path file = this.directory.resolve("Foo.java");
+        Files.write(file, "class Foo {}\n".getBytes(StandardCharsets.UTF_8));
+        final long time = TimeUnit.SECONDS.toNanos(1500000000) + 123456789;
+        Files.setLastModifiedTime(file, FileTime.from(time, TimeUnit.NANOSECONDS));
+        final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        // the file system may truncate the timestamp
+        final long modified = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        final long seconds = TimeUnit.NANOSECONDS.toSeconds(modified);
+        final int nanos = (int) (modified % TimeUnit.SECONDS.toNanos(1));
+
+        final IndexWriter writer = new IndexWriter(2);
+        writer.add("Foo.java", FOO, seconds, nanos, attrs.size(), 0);
+        writer.add("Seconds.java", FOO, seconds, 0, attrs.size(), 0);
+        writer.add("Resized.java", FOO, seconds, nanos, attrs.size() + 1, 0);
+        writer.add("Touched.java", FOO, seconds - 1, nanos, attrs.size(), 0);
+        writer.write();
+        Files.setLastModifiedTime(this.indexFile, FileTime.from(modified + TimeUnit.SECONDS.toNanos(10),
+                TimeUnit.NANOSECONDS));
+
+        GitIndex index = GitIndex.read(this.indexFile);
+        assertTrue(index.isUpToDate(index.get("Foo.java"), attrs));
+        // an index written without nanoseconds
+        assertTrue(index.isUpToDate(index.get("Seconds.java"), attrs));
+        assertFalse(index.isUpToDate(index.get("Resized.java"), attrs));
+        assertFalse(index.isUpToDate(index.get("Touched.java"), attrs));
+
+        // a file modified when the index was written is racily clean, it could have changed again unnoticed
+        Files.setLastModifiedTime(this.indexFile, attrs.lastModifiedTime());
+        index = GitIndex.read(this.indexFile);
+        assertFalse(index.isUpToDate(index.get("Foo.java"), attrs));
+    }
+
+    /**
+     * Writes an index file, the paths being added in order.
+     */
+    private final class IndexWriter {
+
+        private final int version;
+
+        private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+
+        private int count;
+
+        private byte[] previousPath = new byte[0];
+
+        IndexWriter(final int version) {
+            this.version = version;
+        }
+
+        void add(final String name, final ObjectId id, final long seconds, final int nanos, final long size,
+                final int flags) throws IOException {
+            final byte[] path = name.getBytes(StandardCharsets.UTF_8);
+            final boolean extended = (flags & EXTENDED_FLAG) != 0;
+            final ByteBuffer entry = ByteBuffer.allocate(64);
+            // ctime, mtime, dev, ino, mode, uid, gid and size
+            entry.putInt((int) seconds).putInt(nanos).putInt((int) seconds).putInt(nanos);
+            entry.putInt(0).putInt(0).putInt(0100644).putInt(0).putInt(0).putInt((int) size);
+            entry.put(toBytes(id));
+            entry.putShort((short) (flags | Math.min(path.length, 0xfff)));
+            if (extended) {
+                entry.putShort((short) 0x4000);
+            }
+            this.entries.write(entry.array(), 0, entry.position());
+            if (this.version == 4) {
+                int common = 0;
+                while (common < path.length && common < this.previousPath.length
+                        && path[common] == this.previousPath[common]) {
+                    common++;
+                }
+                writeOffset(this.previousPath.length - common);
+                this.entries.write(path, common, path.length - common);
+                this.entries.write(0);
+            } else {
+                this.entries.write(path, 0, path.length);
+                // padded with one to eight NUL bytes to a multiple of eight bytes
+                final int length = entry.position() + path.length;
+                for (int i = length; i < ((length + 8) & ~7); i++) {
+                    this.entries.write(0);
+                }
+            }
+            this.previousPath = path;
+            this.count++;
+        }
+
+        /**
+         * Write a number big endian, adding one to each byte but the last, as the offsets of deltas.
+         */
+        private void writeOffset(final long value) {
+            long remaining = value;
+            final byte[] bytes = new byte[10];
+            int position = bytes.length - 1;
+            bytes[position] = (byte) (remaining & 0x7f);
+            while ((remaining >>>= 7) != 0) {
+                bytes[--position] = (byte) (0x80 | (--remaining & 0x7f));
+            }
+            this.entries.write(bytes, position, bytes.length - position);
+        }
+
+        void write() throws Exception {
+            final ByteArrayOutputStream index = new ByteArrayOutputStream();
+            index.write(ByteBuffer.allocate(12).putInt(0x44495243).putInt(this.version).putInt(this.count).array());
+            this.entries.writeTo(index);
+            index.write(MessageDigest.getInstance("SHA-1").digest(index.toByteArray()));
+            Files.write(GitIndexTest.this.indexFile, index.toByteArray());
+        }
+    }
+
+    private static byte[] toBytes(final ObjectId id) {
+        final String hex = id.toString();
+        final byte[] bytes = new byte[ObjectId.LENGTH];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,366 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter.git;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link PackFile}, on packs and version 2 indexes written by the test.
+ */
+public class PackFileTest {
+
+    private static final int OFS_DELTA = 6;
+
+    private static final int REF_DELTA = 7;
+
+    private Path workTree;
+
+    private Path packDir;
+
+    @Before
+    public void setUp() throws Exception {
+        this.workTree = Paths.get("target/testoutput/git-pack").toAbsolutePath();
+        FileUtils.deleteDirectory(this.workTree.toFile());
+        final Path gitDir = this.workTree.resolve(".git");
+        this.packDir = gitDir.resolve("objects/pack");
+        Files.createDirectories(this.packDir);
+        Files.write(gitDir.resolve("HEAD"), "ref: refs/heads/master\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        // enough objects for most first bytes of the fan-out table to be shared or skipped
+        final PackWriter pack = new PackWriter();
+        final List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            final byte[] content = ("class C" + i + " {}\n").getBytes(StandardCharsets.UTF_8);
+            contents.add(content);
+            // every third offset goes to the table of large offsets
+            pack.add(GitObject.BLOB, content, i % 3 == 0);
+        }
+        pack.write("pack-lookup");
+
+        try (GitRepository repository = open()) {
+            for (final byte[] content : contents) {
+                final GitObject object = repository.read(idOf(GitObject.BLOB, content));
+                assertEquals(GitObject.BLOB, object.type);
+                assertArrayEquals(content, object.data);
+            }
+            try {
+                repository.read(idOf(GitObject.BLOB, "class C300 {}\n".getBytes(StandardCharsets.UTF_8)));
+                fail("Missing object read");
+            } catch (final IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Missing object"));
+            }
+        }
+    }
+
+    @Test
+    public void testDeltas() throws Exception {
+        final byte[] base = "public class Foo {\n    int a;\n    int b;\n}\n".getBytes(StandardCharsets.UTF_8);
+        final byte[] first = "public class Foo {\n    int a;\n    int c;\n}\n".getBytes(StandardCharsets.UTF_8);
+        final byte[] second = "// header\npublic class Foo {\n    int a;\n    int c;\n}\n"
+                .getBytes(StandardCharsets.UTF_8);
+        final byte[] third = "public class Foo {\n    int a;\n}\n".getBytes(StandardCharsets.UTF_8);
+
+        final PackWriter pack = new PackWriter();
+        final int baseIndex = pack.add(GitObject.BLOB, base, false);
+        // a chain of offset deltas, then a delta referring to its base by object id
+        final int firstIndex = pack.addOfsDelta(baseIndex, delta(base, first), first, GitObject.BLOB);
+        pack.addOfsDelta(firstIndex, delta(first, second), second, GitObject.BLOB);
+        pack.addRefDelta(idOf(GitObject.BLOB, base), delta(base, third), third, GitObject.BLOB);
+        pack.write("pack-deltas");
+
+        try (GitRepository repository = open()) {
+            for (final byte[] content : Arrays.asList(base, first, second, third)) {
+                final GitObject object = repository.read(idOf(GitObject.BLOB, content));
+                assertEquals(GitObject.BLOB, object.type);
+                assertArrayEquals(content, object.data);
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptDelta() throws Exception {
+        final byte[] base = "class A {}\n".getBytes(StandardCharsets.UTF_8);
+        final byte[] delta = delta(base, "class B {}\n".getBytes(StandardCharsets.UTF_8));
+        // the delta claims a larger base
+        delta[0]++;
+        try {
+            PackFile.applyDelta(new GitObject(GitObject.BLOB, base), delta);
+            fail("Corrupt delta applied");
+        } catch (final IOException e) {
+            assertEquals("Corrupt delta", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testTruncatedIndex() throws Exception {
+        final PackWriter pack = new PackWriter();
+        final byte[] content = "class A {}\n".getBytes(StandardCharsets.UTF_8);
+        pack.add(GitObject.BLOB, content, false);
+        pack.write("pack-truncated");
+        final Path index = this.packDir.resolve("pack-truncated.idx");
+        final byte[] bytes = Files.readAllBytes(index);
+        Files.write(index, Arrays.copyOf(bytes, 8 + 256 * 4 + 10));
+
+        try (GitRepository repository = open()) {
+            repository.read(idOf(GitObject.BLOB, content));
+            fail("Truncated index read");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt pack index"));
+        }
+    }
+
+    private GitRepository open() throws IOException {
+        return GitRepository.find(this.workTree.toRealPath());
+    }
+
+    private static ObjectId idOf(final int type, final byte[] content) throws Exception {
+        final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        digest.update(objectHeader(type, content.length));
+        digest.update(content);
+        return ObjectId.fromBytes(digest.digest(), 0);
+    }
+
+    private static byte[] objectHeader(final int type, final int size) {
+        final String name = Arrays.asList("", "commit", "tree", "blob", "tag").get(type);
+        return (name + " " + size + "\0").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encode the target as copies of the longest common prefix and suffix of the base, and an insertion of the rest.
+     */
+    private static byte[] delta(final byte[] base, final byte[] target) {
+        int prefix = 0;
+        while (prefix < base.length && prefix < target.length && base[prefix] == target[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < base.length - prefix && suffix < target.length - prefix
+                && base[base.length - 1 - suffix] == target[target.length - 1 - suffix]) {
+            suffix++;
+        }
+        final ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        writeVarint(delta, base.length);
+        writeVarint(delta, target.length);
+        if (prefix > 0) {
+            writeCopy(delta, 0, prefix);
+        }
+        for (int i = prefix; i < target.length - suffix; i += 0x7f) {
+            final int length = Math.min(0x7f, target.length - suffix - i);
+            delta.write(length);
+            delta.write(target, i, length);
+        }
+        if (suffix > 0) {
+            writeCopy(delta, base.length - suffix, suffix);
+        }
+        return delta.toByteArray();
+    }
+
+    private static void writeCopy(final ByteArrayOutputStream delta, final int offset, final int size) {
+        int command = 0x80;
+        final ByteArrayOutputStream arguments = new ByteArrayOutputStream();
+        for (int i = 0; i < 4; i++) {
+            if ((offset >>> (8 * i) & 0xff) != 0) {
+                command |= 1 << i;
+                arguments.write(offset >>> (8 * i));
+            }
+        }
+        for (int i = 0; i < 3; i++) {
+            if ((size >>> (8 * i) & 0xff) != 0) {
+                command |= 0x10 << i;
+                arguments.write(size >>> (8 * i));
+            }
+        }
+        delta.write(command);
+        delta.write(arguments.toByteArray(), 0, arguments.size());
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out, final long value) {
+        long remaining = value;
+        while (remaining >= 0x80) {
+            out.write((int) (remaining & 0x7f) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    /**
+     * Writes a pack and its version 2 index.
+     */
+    private final class PackWriter {
+
+        private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+
+        private final List<ObjectId> ids = new ArrayList<>();
+
+        private final List<Long> offsets = new ArrayList<>();
+
+        private final List<Boolean> large = new ArrayList<>();
+
+        int add(final int type, final byte[] content, final boolean largeOffset) throws Exception {
+            final long offset = start(type, content.length);
+            deflate(content);
+            return added(idOf(type, content), offset, largeOffset);
+        }
+
+        int addOfsDelta(final int baseIndex, final byte[] delta, final byte[] content, final int type)
+                throws Exception {
+            final long offset = start(OFS_DELTA, delta.length);
+            // the distance to the base, big endian, adding one to each byte but the last
+            long distance = offset - this.offsets.get(baseIndex);
+            final byte[] bytes = new byte[10];
+            int position = bytes.length - 1;
+            bytes[position] = (byte) (distance & 0x7f);
+            while ((distance >>>= 7) != 0) {
+                bytes[--position] = (byte) (0x80 | (--distance & 0x7f));
+            }
+            this.entries.write(bytes, position, bytes.length - position);
+            deflate(delta);
+            return added(idOf(type, content), offset, false);
+        }
+
+        int addRefDelta(final ObjectId base, final byte[] delta, final byte[] content, final int type)
+                throws Exception {
+            final long offset = start(REF_DELTA, delta.length);
+            this.entries.write(toBytes(base));
+            deflate(delta);
+            return added(idOf(type, content), offset, false);
+        }
+
+        private long start(final int type, final long size) {
+            final long offset = 12 + this.entries.size();
+            long remaining = size >>> 4;
+            int c = type << 4 | (int) (size & 15);
+            while (remaining != 0) {
+                this.entries.write(c | 0x80);
+                c = (int) (remaining & 0x7f);
+                remaining >>>= 7;
+            }
+            this.entries.write(c);
+            return offset;
+        }
+
+        private void deflate(final byte[] content) throws IOException {
+            final DeflaterOutputStream out = new DeflaterOutputStream(this.entries);
+            out.write(content);
+            out.finish();
+        }
+
+        private int added(final ObjectId id, final long offset, final boolean largeOffset) {
+            this.ids.add(id);
+            this.offsets.add(offset);
+            this.large.add(largeOffset);
+            return this.ids.size() - 1;
+        }
+
+        void write(final String name) throws Exception {
+            final ByteArrayOutputStream pack = new ByteArrayOutputStream();
+            pack.write(ByteBuffer.allocate(12).put("PACK".getBytes(StandardCharsets.US_ASCII)).putInt(2)
+                    .putInt(this.ids.size()).array());
+            this.entries.writeTo(pack);
+            final byte[] packChecksum = MessageDigest.getInstance("SHA-1").digest(pack.toByteArray());
+            pack.write(packChecksum);
+            Files.write(PackFileTest.this.packDir.resolve(name + ".pack"), pack.toByteArray());
+
+            final Integer[] order = new Integer[this.ids.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(final Integer o1, final Integer o2) {
+                    return PackWriter.this.ids.get(o1).toString().compareTo(PackWriter.this.ids.get(o2).toString());
+                }
+            });
+            final int[] fanOut = new int[256];
+            for (final ObjectId id : this.ids) {
+                for (int b = id.getFirstByte(); b < 256; b++) {
+                    fanOut[b]++;
+                }
+            }
+            final ByteBuffer index = ByteBuffer.allocate(8 + 256 * 4 + order.length * (20 + 4 + 4 + 8) + 40);
+            index.putInt(0xff744f63).putInt(2);
+            for (final int count : fanOut) {
+                index.putInt(count);
+            }
+            for (final int i : order) {
+                index.put(toBytes(this.ids.get(i)));
+            }
+            final byte[] entryBytes = this.entries.toByteArray();
+            for (final int i : order) {
+                final int start = (int) (this.offsets.get(i) - 12);
+                final int end = i + 1 < order.length ? (int) (this.offsets.get(i + 1) - 12) : entryBytes.length;
+                final CRC32 crc = new CRC32();
+                crc.update(entryBytes, start, end - start);
+                index.putInt((int) crc.getValue());
+            }
+            final List<Long> largeOffsets = new ArrayList<>();
+            for (final int i : order) {
+                if (this.large.get(i)) {
+                    index.putInt(0x80000000 | largeOffsets.size());
+                    largeOffsets.add(this.offsets.get(i));
+                } else {
+                    index.putInt((int) (long) this.offsets.get(i));
+                }
+            }
+            for (final long offset : largeOffsets) {
+                index.putLong(offset);
+            }
+            index.put(packChecksum);
+            final byte[] bytes = Arrays.copyOf(index.array(), index.position());
+            final byte[] indexChecksum = MessageDigest.getInstance("SHA-1").digest(bytes);
+            final byte[] content = Arrays.copyOf(bytes, bytes.length + indexChecksum.length);
+            System.arraycopy(indexChecksum, 0, content, bytes.length, indexChecksum.length);
+            Files.write(PackFileTest.this.packDir.resolve(name + ".idx"), content);
+        }
+    }
+
+    private static byte[] toBytes(final ObjectId id) {
+        final String hex = id.toString();
+        final byte[] bytes = new byte[ObjectId.LENGTH];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2010-2017. All work is copyrighted to their respective
+ * author(s), unless otherwise stated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.formatter.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link ImportSorter}.
+ */
+public class ImportSorterTest {
+
+    private static final List<String> ORDER = Arrays.asList("java", "javax", "org", "com");
+
+    @Test
+    public void testSortAndGroup() {
+        final String code = "package a;\n\nimport org.junit.Test;\nimport java.util.List;\nimport com.foo.Bar;\n"
+                + "import java.util.List;\nimport static org.junit.Assert.assertEquals;\nimport net.x.Y;\n\n"
+                + "class A {\n}\n";
+        final String expected = "package a;\n\nimport static org.junit.Assert.assertEquals;\n\n"
+                + "import java.util.List;\n\nimport net.x.Y;\n\nimport org.junit.Test;\n\nimport com.foo.Bar;\n\n"
+                + "class A {\n}\n";
+        assertEquals(expected, new ImportSorter(ORDER).format(code));
+    }
+
+    @Test
+    public void testAlreadySorted() {
+        final String code = "package a;\n\nimport static org.junit.Assert.assertEquals;\n\n"
+                + "import java.util.List;\nimport java.util.Map;\n\nimport org.junit.Test;\n\nclass A {\n}\n";
+        assertSame(code, new ImportSorter(ORDER).format(code));
+
+        // an import matching no order item
+        final String other = "package a;\n\nimport java.util.List;\n\nimport net.x.Y;\n\nimport org.junit.Test;\n\n"
+                + "class A {\n}";
+        assertSame(other, new ImportSorter(ORDER).format(other));
+    }
+
+    @Test
+    public void testSortedBlocksMemoized() {
+        final ImportOrder order = new ImportOrder(ORDER);
+        final String block = order.sort(Arrays.asList("org.junit.Test", "java.util.List", "com.foo.Bar"));
+        assertEquals("import java.util.List;\n\nimport org.junit.Test;\n\nimport com.foo.Bar;\n", block);
+        // the same set in another order is not sorted again
+        assertSame(block, order.sort(Arrays.asList("com.foo.Bar", "org.junit.Test", "java.util.List")));
+        assertEquals(1, order.getSortedBlockCount());
+        assertNotSame(block, new ImportOrder(ORDER).sort(Arrays.asList("org.junit.Test", "java.util.List",
+                "com.foo.Bar")));
+
+        final String other = order.sort(Arrays.asList("org.junit.Test", "java.util.List"));
+        assertEquals("import java.util.List;\n\nimport org.junit.Test;\n", other);
+        assertEquals(2, order.getSortedBlockCount());
+    }
+
+    @Test
+    public void testSortedBlocksBounded() {
+        final ImportOrder order = new ImportOrder(ORDER);
+        for (int i = 0; i < 2 * ImportOrder.MAX_SORTED_BLOCKS; i++) {
+            final String anImport = "org.a.C" + i;
+            assertEquals("import java.util.List;\n\nimport " + anImport + ";\n",
+                    order.sort(Arrays.asList(anImport, "java.util.List")));
+        }
+        assertTrue(order.getSortedBlockCount() <= ImportOrder.MAX_SORTED_BLOCKS);
+    }
+
+    @Test
+    public void testLongestMatchingOrderItem() {
+        final ImportOrder order = new ImportOrder(Arrays.asList("org", "com", "org.junit", "\\#"));
+        final String code = "import org.junit.Test;\nimport com.a.B;\nimport org.apache.C;\n"
+                + "import static org.junit.Assert.fail;\nimport java.io.File;\n\nclass A {\n}\n";
+        final String expected = "import org.apache.C;\n\nimport com.a.B;\n\nimport java.io.File;\n\n"
+                + "import org.junit.Test;\n\nimport static org.junit.Assert.fail;\n\nclass A {\n}\n";
+        assertEquals(expected, new ImportSorter(order, false).format(code));
+    }
+
+    @Test
+    public void testRemoveUnusedImports() {
+        final String code = "package a;\n\nimport java.util.List;\nimport java.util.Map;\nimport java.util.Set;\n"
+                + "import java.io.File;\nimport java.io.*;\nimport static org.junit.Assert.fail;\n"
+                + "import org.junit.Test;\n\n/**\n * Uses {@link Map}.\n */\nclass A {\n"
+                + "    // Set is only mentioned in a comment\n    String s = \"File\";\n    List<String> l;\n}\n";
+        final String expected = "package a;\n\nimport static org.junit.Assert.fail;\n\nimport java.io.*;\n"
+                + "import java.util.List;\nimport java.util.Map;\n\n/**\n * Uses {@link Map}.\n */\nclass A {\n"
+                + "    // Set is only mentioned in a comment\n    String s = \"File\";\n    List<String> l;\n}\n";
+        assertEquals(expected, new ImportSorter(new ImportOrder(ORDER), true).format(code));
+        assertSame(expected, new ImportSorter(new ImportOrder(ORDER), true).format(expected));
+    }
+
+    @Test
+    public void testRemoveAllImports() {
+        final String code = "package a;\n\nimport java.util.List;\nimport java.util.Map;\n\nclass X {\n}\n";
+        final String expected = "package a;\n\nclass X {\n}\n";
+        assertEquals(expected, new ImportSorter(new ImportOrder(ORDER), true).format(code));
+        assertSame(expected, new ImportSorter(new ImportOrder(ORDER), true).format(expected));
+
+        final String crlf = "package a;\r\n\r\nimport java.util.List;\r\n\r\n  \r\nclass X {\r\n}";
+        assertEquals("package a;\n\nclass X {\n}", new ImportSorter(new ImportOrder(ORDER), true).format(crlf));
+
+        final String noPackage = "import java.util.List;\n\nclass X {\n}\n";
+        assertEquals("class X {\n}\n", new ImportSorter(new ImportOrder(ORDER), true).format(noPackage));
+    }
+
+    @Test
+    public void testLineSeparatorsAndTrailingBlankLines() {
+        final String code = "package a;\r\n\r\nimport java.util.Map;\r\nimport java.io.File;\r\n\r\nclass A {\r\n}\r\n"
+                + "\r\n  \r\n";
+        final String expected = "package a;\n\nimport java.io.File;\nimport java.util.Map;\n\nclass A {\n}\n";
+        assertEquals(expected, new ImportSorter(ORDER).format(code));
+    }
+
+    @Test
+    public void testNoImports() {
+        assertEquals("class A {}", new ImportSorter(ORDER).format("class A {}"));
+    }
+
+    @Test
+    public void testBlankDocument() {
+        assertEquals("", new ImportSorter(ORDER).format(""));
+        assertEquals("", new ImportSorter(ORDER).format("  \n\n"));
+    }
+
+}
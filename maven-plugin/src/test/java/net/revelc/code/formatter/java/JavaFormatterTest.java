@@ -16,15 +16,19 @@
  */
 package net.revelc.code.formatter.java;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.junit.Test;
 
 import net.revelc.code.formatter.AbstractFormatterTest;
+import net.revelc.code.formatter.LineEnding;
 import net.revelc.code.formatter.java.JavaFormatter;
 
 /**
@@ -48,4 +52,20 @@ public class JavaFormatterTest extends AbstractFormatterTest {
         assertTrue(javaFormatter.isInitialized());
     }
 
+    @Test
+    public void testImportsOnly() throws Exception {
+        JavaFormatter javaFormatter = new JavaFormatter();
+        javaFormatter.setImportsOnly(true);
+        final File targetDir = new File("target/testoutput");
+        targetDir.mkdirs();
+        javaFormatter.init(new HashMap<String, String>(), new AbstractFormatterTest.TestConfigurationSource(targetDir));
+        javaFormatter.setImportOrder(Arrays.asList("java", "javax", "org", "com"));
+        assertTrue(javaFormatter.isInitialized());
+
+        String code = "package a;\r\n\r\nimport org.junit.Test;\r\nimport java.util.List;\r\n\r\nclass   A{}\r\n";
+        assertEquals("package a;\r\n\r\nimport java.util.List;\r\n\r\nimport org.junit.Test;\r\n\r\nclass   A{}\r\n",
+                javaFormatter.formatCode(code, LineEnding.KEEP));
+        assertNull(javaFormatter.formatCode("import java.util.List;\n\nclass   A{}\n", LineEnding.LF));
+    }
+
 }